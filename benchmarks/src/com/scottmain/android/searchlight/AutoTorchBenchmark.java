@@ -0,0 +1,77 @@
+package com.scottmain.android.searchlight;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One preview frame through the auto torch, at the lean size the auto mode
+ * runs and at sizes a viewfinder would. The frames are synthetic Y planes
+ * over a dark room with sensor noise; the analyzer reads a fixed grid either
+ * way, so the cost should barely move with the size.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AutoTorchBenchmark {
+	private static final int FRAMES = 16; // cycled, so the caches see a stream
+
+	@Param({ "176x144", "640x480", "1920x1080" })
+	String mSize;
+
+	private int mWidth;
+	private int mHeight;
+	private byte[][] mFrames;
+	private int mNext;
+	private AutoTorch mAutoTorch;
+	int mDecisions;
+
+	@Setup
+	public void setUp() {
+		final int x = mSize.indexOf('x');
+		mWidth = Integer.parseInt(mSize.substring(0, x));
+		mHeight = Integer.parseInt(mSize.substring(x + 1));
+		Random noise = new Random(1);
+		mFrames = new byte[FRAMES][mWidth * mHeight * 3 / 2];
+		for (byte[] frame : mFrames) {
+			for (int i = 0; i < mWidth * mHeight; i++) {
+				frame[i] = (byte) (20 + noise.nextInt(9) - 4);
+			}
+		}
+		mAutoTorch = new AutoTorch(new AutoTorch.Listener() {
+			public void onAutoTorch(boolean on) {
+				// Act on it, as the activity would, so the analyzer keeps judging
+				mDecisions++;
+				mAutoTorch.setLit(on);
+			}
+		});
+	}
+
+	@Benchmark
+	public int onFrame() {
+		mAutoTorch.onFrame(mFrames[mNext], mWidth, mHeight, 17 /* NV21 */, 0);
+		mNext = (mNext + 1) % FRAMES;
+		return mDecisions;
+	}
+
+	@Benchmark
+	public int meanLuma() {
+		final int luma = AutoTorch.meanLuma(mFrames[mNext], mWidth, mHeight);
+		mNext = (mNext + 1) % FRAMES;
+		return luma;
+	}
+}
@@ -0,0 +1,97 @@
+package com.scottmain.android.searchlight;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One viewfinder frame through the Morse receiver, from a synthetic stream:
+ * a message sent at 10 words per minute, seen at 30 frames a second as a
+ * lit or dark square in the middle of a noisy frame. The stream repeats, so
+ * the decoding, and the occasional String for new text, are timed along with
+ * reading the square.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MorseReceiverBenchmark {
+	private static final long FRAME_NANOS = 33333333L;
+
+	@Param({ "640x480", "1920x1080" })
+	String mSize;
+
+	private int mWidth;
+	private int mHeight;
+	private byte[] mDark;
+	private byte[] mLit;
+	private boolean[] mStream; // whether the light is on in each frame
+	private int mNext;
+	private long mNanos;
+	private MorseReceiver mReceiver;
+	int mTextChanges;
+
+	@Setup
+	public void setUp() {
+		final int x = mSize.indexOf('x');
+		mWidth = Integer.parseInt(mSize.substring(0, x));
+		mHeight = Integer.parseInt(mSize.substring(x + 1));
+		Random noise = new Random(1);
+		mDark = frame(noise, 30);
+		mLit = frame(noise, 200);
+
+		final int[] table = Morse.compile("SOS HELLO WORLD 73");
+		final long unit = Morse.unitNanos(10);
+		long total = 0;
+		for (int units : table) total += units * unit;
+		mStream = new boolean[(int) (total / FRAME_NANOS)];
+		long end = 0;
+		int frame = 0;
+		for (int i = 0; i < table.length; i++) {
+			end += table[i] * unit;
+			for (; frame < mStream.length && frame * FRAME_NANOS < end; frame++) {
+				mStream[frame] = i % 2 == 0;
+			}
+		}
+
+		mReceiver = new MorseReceiver(new MorseReceiver.Listener() {
+			public void onMorseText(String text) {
+				mTextChanges++;
+			}
+		});
+	}
+
+	/** Noise everywhere, with the light's square in the middle at level */
+	private byte[] frame(Random noise, int level) {
+		byte[] data = new byte[mWidth * mHeight * 3 / 2];
+		final int half = Math.min(mWidth, mHeight) / MorseReceiver.REGION_DIVISOR / 2 + 2;
+		for (int y = 0; y < mHeight; y++) {
+			for (int x = 0; x < mWidth; x++) {
+				final boolean inside = Math.abs(x - mWidth / 2) <= half && Math.abs(y - mHeight / 2) <= half;
+				data[y * mWidth + x] = (byte) ((inside ? level : 30) + noise.nextInt(8));
+			}
+		}
+		return data;
+	}
+
+	@Benchmark
+	public int onFrame() {
+		mReceiver.onFrame(mStream[mNext] ? mLit : mDark, mWidth, mHeight, 17 /* NV21 */, mNanos);
+		mNanos += FRAME_NANOS;
+		if (++mNext == mStream.length) mNext = 0; // the message ends in a word gap, so it runs on
+		return mTextChanges;
+	}
+}
@@ -0,0 +1,147 @@
+package com.scottmain.android.searchlight;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Preview size selection over lists the length real cameras report. The
+ * fakes stand in for Camera.Size and Camera.Parameters, whose
+ * getSupportedPreviewSizes() parses the HAL's flattened "WxH,WxH" string
+ * into a new list on every call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PreviewSizesBenchmark {
+	// Portrait surfaces pass their size backwards, as PreviewSurface does
+	private static final int TARGET_WIDTH = 1920;
+	private static final int TARGET_HEIGHT = 1080;
+
+	// Aspect ratios cameras list sizes in, as width:height
+	private static final int[][] ASPECTS = { {16, 9}, {4, 3}, {18, 9}, {1, 1}, {3, 2}, {5, 3}, {11, 9} };
+
+	/** Stands in for Camera.Size */
+	static final class FakeSize {
+		final int width;
+		final int height;
+
+		FakeSize(int width, int height) {
+			this.width = width;
+			this.height = height;
+		}
+	}
+
+	/** Stands in for Camera.Parameters: sizes are kept flattened, and parsed per call */
+	static final class FakeParameters {
+		private final String mPreviewSizes;
+
+		FakeParameters(String previewSizes) {
+			mPreviewSizes = previewSizes;
+		}
+
+		List<FakeSize> getSupportedPreviewSizes() {
+			List<FakeSize> sizes = new ArrayList<FakeSize>();
+			for (String size : mPreviewSizes.split(",")) {
+				int x = size.indexOf('x');
+				sizes.add(new FakeSize(Integer.parseInt(size.substring(0, x)),
+						Integer.parseInt(size.substring(x + 1))));
+			}
+			return sizes;
+		}
+	}
+
+	@Param({ "30", "55", "80" })
+	int mCount;
+
+	private int[] mWidths;
+	private int[] mHeights;
+	private List<FakeSize> mSizes;
+	private FakeParameters mParameters;
+
+	@Setup
+	public void setUp() {
+		mWidths = new int[mCount];
+		mHeights = new int[mCount];
+		mSizes = new ArrayList<FakeSize>();
+		StringBuilder flattened = new StringBuilder();
+		// Largest first, cycling through the aspects, the way HALs tend to list them
+		for (int i = 0; i < mCount; i++) {
+			final int[] aspect = ASPECTS[i % ASPECTS.length];
+			final int height = 2160 - (i / ASPECTS.length) * (2000 / (mCount / ASPECTS.length + 1));
+			final int width = height * aspect[0] / aspect[1];
+			mWidths[i] = width;
+			mHeights[i] = height;
+			mSizes.add(new FakeSize(width, height));
+			if (i > 0) flattened.append(',');
+			flattened.append(width).append('x').append(height);
+		}
+		mParameters = new FakeParameters(flattened.toString());
+	}
+
+	@Benchmark
+	public int pickOptimal() {
+		return PreviewSizes.pickOptimal(mWidths, mHeights, mCount, TARGET_WIDTH, TARGET_HEIGHT);
+	}
+
+	@Benchmark
+	public int pickSmallest() {
+		return PreviewSizes.pickSmallest(mWidths, mHeights, mCount);
+	}
+
+	/** The original two-pass ApiDemos version over Size objects, for comparison */
+	@Benchmark
+	public FakeSize twoPassOverSizes() {
+		final double targetRatio = (double) TARGET_WIDTH / TARGET_HEIGHT;
+		FakeSize optimal = null;
+		double minDiff = Double.MAX_VALUE;
+		for (FakeSize size : mSizes) {
+			double ratio = (double) size.width / size.height;
+			if (Math.abs(ratio - targetRatio) > 0.05) continue;
+			if (Math.abs(size.height - TARGET_HEIGHT) < minDiff) {
+				optimal = size;
+				minDiff = Math.abs(size.height - TARGET_HEIGHT);
+			}
+		}
+		if (optimal == null) {
+			minDiff = Double.MAX_VALUE;
+			for (FakeSize size : mSizes) {
+				if (Math.abs(size.height - TARGET_HEIGHT) < minDiff) {
+					optimal = size;
+					minDiff = Math.abs(size.height - TARGET_HEIGHT);
+				}
+			}
+		}
+		return optimal;
+	}
+
+	/** What a preview size cache miss costs: ask the parameters, copy out, pick */
+	@Benchmark
+	public int fromParameters() {
+		List<FakeSize> sizes = mParameters.getSupportedPreviewSizes();
+		final int count = sizes.size();
+		int[] widths = new int[count];
+		int[] heights = new int[count];
+		for (int i = 0; i < count; i++) {
+			FakeSize s = sizes.get(i);
+			widths[i] = s.width;
+			heights[i] = s.height;
+		}
+		return PreviewSizes.pickOptimal(widths, heights, count, TARGET_WIDTH, TARGET_HEIGHT);
+	}
+}
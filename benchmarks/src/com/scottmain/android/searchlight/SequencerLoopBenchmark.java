@@ -0,0 +1,99 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The cost of each edge in the strobe, Morse and dimmer timing loops, apart
+ * from the waiting. The clock leaps a second on every read, so every deadline
+ * has already passed and the loop runs flat out on its real thread, through
+ * the segment logic and the timing statistics, to a torch that only counts.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SequencerLoopBenchmark {
+	private static final int EDGES = 20000;
+
+	/** Sequencer thread only, so a plain field will do */
+	static final class LeapingClock implements MonotonicClock {
+		private long mNow;
+
+		public long nanoTime() {
+			return mNow += 1000000000L;
+		}
+	}
+
+	static final class CountingTorch implements TorchBackend {
+		volatile int mSwitches;
+
+		public void open() {}
+		public void release() {}
+		public void lightOn() {}
+		public void lightOff() {}
+
+		public boolean applyTorch(boolean on) {
+			mSwitches++;
+			return true;
+		}
+	}
+
+	@Param({ "strobe", "morse", "pwm" })
+	String mSequence;
+
+	private CountingTorch mTorch;
+	private TorchSequencer mSequencer;
+
+	@Setup
+	public void setUp() {
+		mTorch = new CountingTorch();
+		final MonotonicClock clock = new LeapingClock();
+		if ("strobe".equals(mSequence)) {
+			StrobeEngine strobe = new StrobeEngine(mTorch, clock);
+			strobe.setFrequency(StrobeEngine.MAX_FREQUENCY);
+			mSequencer = strobe;
+		} else if ("morse".equals(mSequence)) {
+			MorsePlayer player = new MorsePlayer(mTorch, clock);
+			player.setTable(Morse.compile("SOS HELLO WORLD 73"));
+			mSequencer = player;
+		} else {
+			PwmDimmer dimmer = new PwmDimmer(mTorch, clock);
+			dimmer.setLevel(0.4f);
+			mSequencer = dimmer;
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		mSequencer.stop();
+	}
+
+	/** Run the loop for EDGES switches; thread start and stop are spread over them */
+	@Benchmark
+	@OperationsPerInvocation(EDGES)
+	public int edges() {
+		final int target = mTorch.mSwitches + EDGES;
+		mSequencer.start();
+		while (mTorch.mSwitches < target) {
+			Thread.yield();
+		}
+		mSequencer.stop();
+		return mTorch.mSwitches;
+	}
+}
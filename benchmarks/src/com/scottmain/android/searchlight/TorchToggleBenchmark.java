@@ -0,0 +1,119 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Taps through the command queue and the camera state machine, down to a
+ * camera that does nothing, so only the app's own bookkeeping is timed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TorchToggleBenchmark {
+	private static final int BURST = 8;
+
+	/** Stands in for the Camera: opens, previews and switches instantly */
+	static final class NullCameraOps implements TorchStateMachine.CameraOps {
+		int mSwitches;
+
+		public int open() { return TorchStateMachine.OPENED; }
+		public boolean attachSurface() { return true; }
+		public boolean isSizedToSurface() { return false; }
+		public boolean isOffscreen() { return true; }
+		public void configure(int width, int height, int rotation) {}
+		public void setOrientation(int rotation) {}
+		public void startPreview() {}
+		public void stopPreview() {}
+		public void setTorch(boolean on) { mSwitches++; }
+		public void release() {}
+		public void retain(boolean previewing) {}
+		public void notifyReady() {}
+		public void notifyNotAvailable() {}
+	}
+
+	/** Holds what was posted until the benchmark drains it, like the camera thread's queue */
+	static final class HeldExecutor implements Executor {
+		private final Runnable[] mPosted = new Runnable[BURST];
+		private int mCount;
+
+		public void execute(Runnable command) {
+			mPosted[mCount++] = command;
+		}
+
+		void drain() {
+			for (int i = 0; i < mCount; i++) {
+				mPosted[i].run();
+				mPosted[i] = null;
+			}
+			mCount = 0;
+		}
+	}
+
+	private NullCameraOps mOps;
+	private TorchStateMachine mMachine;
+	private TorchCommandQueue mDirect;
+	private TorchCommandQueue mHeld;
+	private HeldExecutor mHeldExecutor;
+	private boolean mOn;
+
+	@Setup
+	public void setUp() {
+		mOps = new NullCameraOps();
+		mMachine = new TorchStateMachine(mOps);
+		mMachine.surfaceCreated();
+		mMachine.surfaceChanged(1, 1, 0);
+		final TorchCommandQueue.Target target = new TorchCommandQueue.Target() {
+			public void setLight(boolean on) {
+				mMachine.setLight(on);
+			}
+		};
+		mDirect = new TorchCommandQueue(new Executor() {
+			public void execute(Runnable command) {
+				command.run();
+			}
+		}, target);
+		mHeldExecutor = new HeldExecutor();
+		mHeld = new TorchCommandQueue(mHeldExecutor, target);
+	}
+
+	/** One tap straight through to the camera */
+	@Benchmark
+	public int stateMachine() {
+		mMachine.setLight(mOn = !mOn);
+		return mOps.mSwitches;
+	}
+
+	/** One tap through the queue, with the camera thread keeping up */
+	@Benchmark
+	public int queueAndStateMachine() {
+		mDirect.submit(mOn = !mOn);
+		return mOps.mSwitches;
+	}
+
+	/** Taps faster than the camera thread drains them, so they coalesce */
+	@Benchmark
+	@OperationsPerInvocation(BURST)
+	public int coalescedBurst() {
+		for (int i = 0; i < BURST; i++) {
+			mHeld.submit(mOn = !mOn);
+		}
+		mHeldExecutor.drain();
+		return mOps.mSwitches;
+	}
+}
@@ -0,0 +1,254 @@
+package com.scottmain.android.searchlight;
+
+import java.util.Arrays;
+
+/**
+ * Pulses the torch with the sound from an {@link AudioSource}, from its own
+ * high-priority thread: on for each burst the {@link OnsetDetector} hears,
+ * off between them.
+ *
+ * <p>Samples are read in blocks of about 8 ms into one reused buffer. The
+ * torch is switched at most once per {@link #MIN_SWITCH_NANOS}, which is about
+ * as fast as the LED and the eye can follow. A change that comes sooner
+ * waits for its turn, and is dropped if the sound changes back first.</p>
+ *
+ * <p>For every burst that lights the torch, the time from the burst's first
+ * loud sample to the torch taking the change is kept. When the source can
+ * date its samples, that includes the time they spent in its buffers.</p>
+ *
+ * <p>{@link #start()} and {@link #stop()} never wait for the pulse thread.
+ * An exception from the source, the detector or the torch ends the pulse
+ * like a failed read, and is kept for {@link #getFailure()}. Pure Java, so it can be driven by any source on a plain JVM.</p>
+ */
+class AudioPulse {
+	private static final String TAG = "AudioPulse";
+	static final long MIN_SWITCH_NANOS = 40000000; // 25 switches a second
+	private static final int BLOCK_MILLIS = 8;
+	private static final int LATENCY_CAPACITY = 128; // latest onsets kept
+
+	static final int START_FAILED = 1; // the source wouldn't start
+	static final int SOURCE_ENDED = 2; // a read came back with nothing, or failed
+
+	/** Hears the pulse end without {@link AudioPulse#stop()}. Called on the pulse thread. */
+	interface Listener {
+		/**
+		 * @param why START_FAILED or SOURCE_ENDED; the light is already off
+		 * @param result what the last read returned, for logs: 0 or the source's
+		 *        error code, or 0 if it threw or never started
+		 */
+		public void onPulseEnded(AudioPulse pulse, int why, int result);
+	}
+
+	private final TorchBackend mTorch;
+	private final AudioSource mSource;
+	private final MonotonicClock mClock;
+	private final Listener mListener;
+	private final OnsetDetector mDetector;
+	private final short[] mBlock;
+	private volatile Thread mThread;
+	// Taken by start() and stop() only, so they never wait on the pulse
+	// thread's stats; guards mLastThread
+	private final Object mLifecycle = new Object();
+	private Thread mLastThread; // running or stopped
+	private volatile RuntimeException mFailure; // the first the pulse thread caught
+
+	// Guarded by this
+	private final long[] mLatencies = new long[LATENCY_CAPACITY];
+	private final long[] mScratch = new long[LATENCY_CAPACITY];
+	private int mLatencyCount;
+	private long mOnsets;
+	private long mSwitches;
+	private long mDropped;
+
+	AudioPulse(TorchBackend torch, AudioSource source, MonotonicClock clock, Listener listener) {
+		mTorch = torch;
+		mSource = source;
+		mClock = clock;
+		mListener = listener;
+		final int rate = source.getSampleRate();
+		mDetector = new OnsetDetector(rate);
+		mBlock = new short[Math.max(1, rate * BLOCK_MILLIS / 1000)];
+	}
+
+	boolean isRunning() {
+		return mThread != null;
+	}
+
+	void start() {
+		synchronized (mLifecycle) {
+			if (mThread != null) return;
+			final Thread previous = mLastThread;
+			Thread thread = new Thread(new Runnable() {
+				public void run() {
+					// A stopped thread may still be finishing its last block, and
+					// the detector and buffer are its until it's done
+					awaitEnd(previous);
+					listen();
+				}
+			}, TAG);
+			thread.setPriority(Thread.MAX_PRIORITY);
+			mThread = thread;
+			mLastThread = thread;
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop listening, without waiting: the thread finishes the read it's in,
+	 * at most one block, and then stops the source. It's interrupted, and from
+	 * then on the backend refuses its switches (see
+	 * {@link TorchBackend#applyTorch(boolean)}), so the caller's next torch
+	 * command is the one that counts. The light is left for that command.
+	 */
+	void stop() {
+		synchronized (mLifecycle) {
+			Thread thread = mThread;
+			if (thread == null) return;
+			mThread = null;
+			thread.interrupt();
+		}
+	}
+
+	/** Pulse thread only */
+	private static void awaitEnd(Thread thread) {
+		if (thread == null) return;
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Pulse thread only */
+	private void listen() {
+		final Thread self = Thread.currentThread();
+		boolean started = false;
+		try {
+			started = mSource.start();
+		} catch (RuntimeException e) {
+			fail(e);
+		}
+		if (!started) {
+			if (mThread == self) {
+				mThread = null;
+				mListener.onPulseEnded(this, START_FAILED, 0);
+			}
+			return;
+		}
+		final long sampleNanos = 1000000000L / mSource.getSampleRate();
+		long frames = 0; // read since start
+		boolean lit = false;
+		boolean want = false;
+		long wantSince = 0; // when the wanted state's burst began
+		long lastSwitch = mClock.nanoTime() - MIN_SWITCH_NANOS;
+		int result = 0;
+		try {
+			while (mThread == self) {
+				final int count = mSource.read(mBlock, 0, mBlock.length);
+				if (count <= 0) {
+					result = count;
+					break;
+				}
+				final long now = mClock.nanoTime();
+				final int changed = mDetector.process(mBlock, 0, count);
+				if (changed >= 0) {
+					final boolean on = mDetector.isOn();
+					if (on != want) {
+						if (want != lit) {
+							// Changed back before the last change got its turn
+							countDropped();
+						}
+						want = on;
+						if (on) {
+							countOnset();
+							long captured = mSource.getCaptureNanos(frames + changed);
+							wantSince = captured >= 0 ? captured : now - (count - changed) * sampleNanos;
+						}
+					}
+				}
+				frames += count;
+
+				if (want != lit && now - lastSwitch >= MIN_SWITCH_NANOS) {
+					if (mTorch.applyTorch(want)) {
+						lit = want;
+						lastSwitch = mClock.nanoTime();
+						recordSwitch(lit, lastSwitch - wantSince);
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			// Left to escape, it would take the whole app down with the pulse
+			fail(e);
+		} finally {
+			try {
+				mSource.stop();
+			} catch (RuntimeException e) {
+				fail(e);
+			}
+			if (mThread == self) {
+				// The source ran out by itself, so turning the light off is still ours to do
+				try {
+					mTorch.applyTorch(false);
+				} catch (RuntimeException e) {
+					fail(e);
+				}
+				mThread = null;
+				mListener.onPulseEnded(this, SOURCE_ENDED, result);
+			}
+		}
+	}
+
+	private void fail(RuntimeException e) {
+		if (mFailure == null) mFailure = e;
+	}
+
+	/** What ended the pulse, for logs; null if nothing threw */
+	RuntimeException getFailure() {
+		return mFailure;
+	}
+
+	private synchronized void countOnset() {
+		mOnsets++;
+	}
+
+	private synchronized void countDropped() {
+		mDropped++;
+	}
+
+	private synchronized void recordSwitch(boolean lit, long latency) {
+		mSwitches++;
+		if (lit) {
+			mLatencies[mLatencyCount % LATENCY_CAPACITY] = latency;
+			mLatencyCount++;
+		}
+	}
+
+	/** Bursts heard since start() */
+	synchronized long getOnsetCount() {
+		return mOnsets;
+	}
+
+	/**
+	 * Onset-to-light latency over the latest onsets.
+	 * @param percentile 0 to 100
+	 * @return milliseconds, or -1 before the first onset lit the torch
+	 */
+	synchronized float getLatencyMillis(int percentile) {
+		final int n = Math.min(mLatencyCount, LATENCY_CAPACITY);
+		if (n == 0) return -1;
+		System.arraycopy(mLatencies, 0, mScratch, 0, n);
+		Arrays.sort(mScratch, 0, n);
+		int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+		return mScratch[Math.max(0, Math.min(index, n - 1))] / 1e6f;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "onsets " + mOnsets + ", switches " + mSwitches + ", dropped " + mDropped
+				+ ", latency p50 " + getLatencyMillis(50) + " ms, p95 " + getLatencyMillis(95) + " ms";
+	}
+}
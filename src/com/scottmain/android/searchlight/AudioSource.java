@@ -0,0 +1,33 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Mono 16-bit PCM for {@link AudioPulse}: the microphone, or in a test
+ * anything that can fill a buffer, such as an array or a decoded file.
+ *
+ * <p>All methods are called from the one thread that reads the source.</p>
+ */
+interface AudioSource {
+
+	/** Samples per second */
+	public int getSampleRate();
+
+	/** @return false if the source can't be started, such as a microphone in use */
+	public boolean start();
+
+	/**
+	 * Wait for samples and copy them in.
+	 * @return how many were read, or 0 or less once the source has ended
+	 */
+	public int read(short[] buffer, int offset, int length);
+
+	/**
+	 * When a sample was captured, by {@link MonotonicClock#SYSTEM}, so the
+	 * time spent in the source's own buffers can be counted.
+	 *
+	 * @param frame the sample's position since {@link #start()}
+	 * @return the time, or -1 if the source can't tell
+	 */
+	public long getCaptureNanos(long frame);
+
+	public void stop();
+}
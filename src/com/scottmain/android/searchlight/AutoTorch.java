@@ -0,0 +1,125 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Decides from preview frames whether it's dark enough for the torch. Each
+ * frame's brightness is the mean of a sparse grid of Y (luminance) samples,
+ * a few hundred reads instead of the whole frame, so a frame costs
+ * microseconds.
+ *
+ * <p>The torch lights the scene it's judging, so the two ways are judged
+ * differently. While the torch is off, the scene is dark once it's below
+ * {@link #DARK_LUMA}. While it's on, the scene is bright again only once it's
+ * {@link #BRIGHT_MARGIN} above how bright the torch alone made it. That gap is
+ * the hysteresis. A change also has to hold for {@link #DWELL_FRAMES} frames in
+ * a row, and the frames right after a switch are skipped while the LED and
+ * the camera settle.</p>
+ *
+ * <p>This works best with the camera's auto-exposure locked, so brightness in
+ * the frame follows brightness in the room.</p>
+ *
+ * <p>Pure Java, and nothing is allocated per frame.</p>
+ */
+class AutoTorch implements FramePipeline.Analyzer {
+	static final int GRID_COLUMNS = 32;
+	static final int GRID_ROWS = 24;
+	static final int DARK_LUMA = 40; // of 255
+	static final int BRIGHT_MARGIN = 60; // above the torch's own lit level
+	static final int DWELL_FRAMES = 5;
+	static final int SETTLE_FRAMES = 5;
+	private static final int SMOOTHING = 4; // 1/4 of each new frame goes into the running level
+
+	/** Hears the torch decisions. Called on the frame worker thread. */
+	interface Listener {
+		public void onAutoTorch(boolean on);
+	}
+
+	private final Listener mListener;
+	private volatile boolean mLit; // what the torch is actually doing
+	private volatile boolean mResetRequested;
+
+	// Frame worker thread only
+	private boolean mJudgedLit;
+	private int mLevel = -1; // smoothed luminance; -1 until the first frame after a switch
+	private int mBaseline; // mLevel once the torch settled on
+	private int mSettle;
+	private int mDwell;
+	private boolean mRequested; // a switch asked for and not yet made
+
+	AutoTorch(Listener listener) {
+		mListener = listener;
+	}
+
+	/**
+	 * Any thread. Tell the analyzer what the torch is doing, whether it was
+	 * switched because of a decision here or by hand.
+	 */
+	void setLit(boolean lit) {
+		mLit = lit;
+	}
+
+	/**
+	 * Any thread. Start judging afresh from the next frame. A decision that
+	 * was never acted on (the mode changed before it arrived) holds up any
+	 * more until the torch switches, so call this when auto mode comes back.
+	 */
+	void reset() {
+		mResetRequested = true;
+	}
+
+	public void onFrame(byte[] data, int width, int height, int format, long arrivalNanos) {
+		judge(meanLuma(data, width, height));
+	}
+
+	/** Frame worker thread only. Take one frame's brightness into account. */
+	void judge(int luma) {
+		final boolean lit = mLit;
+		if (lit != mJudgedLit || mResetRequested) {
+			// Switched since the last frame: everything measured so far is stale
+			mResetRequested = false;
+			mJudgedLit = lit;
+			mLevel = -1;
+			mSettle = SETTLE_FRAMES;
+			mDwell = 0;
+			mRequested = false;
+		}
+		mLevel = mLevel < 0 ? luma : mLevel + (luma - mLevel) / SMOOTHING;
+		if (mSettle > 0) {
+			if (--mSettle == 0 && lit) mBaseline = mLevel;
+			return;
+		}
+		if (mRequested) return;
+
+		final boolean wantLight = lit
+				? mLevel < mBaseline + BRIGHT_MARGIN
+				: mLevel < DARK_LUMA;
+		if (wantLight == lit) {
+			mDwell = 0;
+			return;
+		}
+		if (++mDwell >= DWELL_FRAMES) {
+			mDwell = 0;
+			mRequested = true;
+			mListener.onAutoTorch(wantLight);
+		}
+	}
+
+	/**
+	 * Mean of a {@link #GRID_COLUMNS} by {@link #GRID_ROWS} grid of samples
+	 * from the Y plane, which comes first in both NV21 and YV12.
+	 */
+	static int meanLuma(byte[] data, int width, int height) {
+		final int stepX = Math.max(1, width / GRID_COLUMNS);
+		final int stepY = Math.max(1, height / GRID_ROWS);
+		int sum = 0;
+		int count = 0;
+		// Sample the middle of each cell, not its edge
+		for (int y = stepY / 2; y < height; y += stepY) {
+			final int row = y * width;
+			for (int x = stepX / 2; x < width; x += stepX) {
+				sum += data[row + x] & 0xff;
+				count++;
+			}
+		}
+		return count == 0 ? 0 : sum / count;
+	}
+}
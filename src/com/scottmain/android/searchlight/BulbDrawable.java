@@ -0,0 +1,223 @@
+package com.scottmain.android.searchlight;
+
+import android.content.res.Resources;
+import android.graphics.Canvas;
+import android.graphics.ColorFilter;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.Path;
+import android.graphics.PixelFormat;
+import android.graphics.RadialGradient;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.graphics.drawable.Drawable;
+import android.os.SystemClock;
+
+/**
+ * The light bulb, drawn from a few paths and gradients instead of a pair of
+ * full-size bitmaps. It fades between off and on like the TransitionDrawable
+ * it replaces, with the same startTransition() / reverseTransition() /
+ * resetTransition() calls, but the fade is only the alpha of the lit glass
+ * and its glow. Nothing is decoded on inflate, and nothing is allocated per
+ * frame.
+ *
+ * <p>The bulb is laid out on the 480 x 469 grid of the old hdpi artwork and
+ * scaled to fit its bounds, so every density gets a sharp one.</p>
+ */
+class BulbDrawable extends Drawable {
+	private static final float DESIGN_WIDTH = 480;
+	private static final float DESIGN_HEIGHT = 469;
+	private static final float LARGE_WIDTH_DP = 320; // the old artwork's size at hdpi
+	private static final float LARGE_HEIGHT_DP = 313;
+	private static final float SMALL_SIZE_DP = 100;
+
+	private final int mWidth;
+	private final int mHeight;
+
+	private final Path mGlass = new Path();
+	private final Path mFilament = new Path();
+	private final RectF mBase = new RectF(198, 372, 282, 440);
+	private final Path mTip = new Path();
+
+	private final Paint mGlassOff = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+	private final Paint mGlassOn = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+	private final Paint mGlow = new Paint(Paint.ANTI_ALIAS_FLAG | Paint.DITHER_FLAG);
+	private final Paint mWire = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mMetal = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mThread = new Paint(Paint.ANTI_ALIAS_FLAG);
+	private final Paint mTipPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+
+	private int mAlpha = 255;
+	private float mScale = 1;
+	private float mLeft;
+	private float mTop;
+
+	// The fade: mLevel goes from mFrom to mTo over mDuration from mStartTime
+	private float mLevel;
+	private float mFrom;
+	private float mTo;
+	private long mStartTime;
+	private int mDuration;
+	private boolean mRunning;
+
+	/** @param small the size of the viewfinder's corner bulb, rather than the full-size one */
+	BulbDrawable(Resources res, boolean small) {
+		final float density = res.getDisplayMetrics().density;
+		mWidth = Math.round((small ? SMALL_SIZE_DP : LARGE_WIDTH_DP) * density);
+		mHeight = Math.round((small ? SMALL_SIZE_DP : LARGE_HEIGHT_DP) * density);
+
+		// A round top, on a neck that narrows down to the base
+		mGlass.moveTo(205, 372);
+		mGlass.cubicTo(205, 330, 166, 300, 166, 265);
+		mGlass.arcTo(new RectF(145, 110, 335, 300), 140.8f, 258.4f);
+		mGlass.cubicTo(314, 300, 275, 330, 275, 372);
+		mGlass.close();
+
+		// Two lead wires up the stem, and the filament slung between them
+		mFilament.moveTo(232, 372);
+		mFilament.lineTo(232, 290);
+		mFilament.lineTo(205, 228);
+		mFilament.moveTo(248, 372);
+		mFilament.lineTo(248, 290);
+		mFilament.lineTo(275, 228);
+		mFilament.moveTo(205, 228);
+		mFilament.quadTo(240, 242, 275, 228);
+
+		mTip.moveTo(212, 440);
+		mTip.lineTo(268, 440);
+		mTip.quadTo(262, 462, 240, 462);
+		mTip.quadTo(218, 462, 212, 440);
+		mTip.close();
+
+		mGlassOff.setShader(new RadialGradient(215, 180, 150,
+				new int[] { 0xFF6A6A6A, 0xFF3A3A3A, 0xFF262626 },
+				new float[] { 0, 0.6f, 1 }, Shader.TileMode.CLAMP));
+		mGlassOn.setShader(new RadialGradient(240, 230, 120,
+				new int[] { 0xFFFFFFFF, 0xFFFFF4A8, 0xFFF2DC6A },
+				new float[] { 0, 0.5f, 1 }, Shader.TileMode.CLAMP));
+		mGlow.setShader(new RadialGradient(240, 215, 160,
+				new int[] { 0xAAFFF6B0, 0x66FFF6B0, 0x00FFF6B0 },
+				new float[] { 0.4f, 0.7f, 1 }, Shader.TileMode.CLAMP));
+		mWire.setStyle(Paint.Style.STROKE);
+		mWire.setStrokeWidth(3);
+		mWire.setColor(0xFF8C8C8C);
+		mMetal.setShader(new LinearGradient(198, 0, 282, 0,
+				new int[] { 0xFF8A8A8A, 0xFFE0E0E0, 0xFF9A9A9A, 0xFF5A5A5A },
+				new float[] { 0, 0.35f, 0.7f, 1 }, Shader.TileMode.CLAMP));
+		mThread.setStyle(Paint.Style.STROKE);
+		mThread.setStrokeWidth(3);
+		mThread.setColor(0xFF555555);
+		mTipPaint.setColor(0xFF222222);
+	}
+
+	/** Fade from off to on over the given time, like TransitionDrawable */
+	void startTransition(int durationMillis) {
+		fade(0, 1, durationMillis);
+	}
+
+	/** Fade back the other way from wherever the last fade has got to */
+	void reverseTransition(int durationMillis) {
+		fade(currentLevel(), mTo > 0.5f ? 0 : 1, durationMillis);
+	}
+
+	/** Show the bulb off, at once */
+	void resetTransition() {
+		mRunning = false;
+		mLevel = 0;
+		mTo = 0;
+		invalidateSelf();
+	}
+
+	private void fade(float from, float to, int durationMillis) {
+		mFrom = from;
+		mTo = to;
+		mDuration = durationMillis;
+		mStartTime = SystemClock.uptimeMillis();
+		mRunning = durationMillis > 0;
+		mLevel = mRunning ? from : to;
+		invalidateSelf();
+	}
+
+	private float currentLevel() {
+		if (mRunning) {
+			final float done = Math.min(1f,
+					(SystemClock.uptimeMillis() - mStartTime) / (float) mDuration);
+			mLevel = mFrom + (mTo - mFrom) * done;
+			if (done >= 1) mRunning = false;
+		}
+		return mLevel;
+	}
+
+	@Override
+	protected void onBoundsChange(Rect bounds) {
+		mScale = Math.min(bounds.width() / DESIGN_WIDTH, bounds.height() / DESIGN_HEIGHT);
+		mLeft = bounds.left + (bounds.width() - DESIGN_WIDTH * mScale) / 2;
+		mTop = bounds.top + (bounds.height() - DESIGN_HEIGHT * mScale) / 2;
+	}
+
+	@Override
+	public void draw(Canvas canvas) {
+		final float level = currentLevel();
+		final int save = canvas.save();
+		canvas.translate(mLeft, mTop);
+		canvas.scale(mScale, mScale);
+
+		mGlassOff.setAlpha(mAlpha);
+		canvas.drawPath(mGlass, mGlassOff);
+		mWire.setAlpha(mAlpha);
+		canvas.drawPath(mFilament, mWire);
+		if (level > 0) {
+			final int lit = Math.round(level * mAlpha);
+			mGlow.setAlpha(lit);
+			canvas.drawCircle(240, 215, 160, mGlow);
+			mGlassOn.setAlpha(lit);
+			canvas.drawPath(mGlass, mGlassOn);
+		}
+
+		mMetal.setAlpha(mAlpha);
+		canvas.drawRect(mBase, mMetal);
+		mThread.setAlpha(mAlpha);
+		for (float y = 386; y < 440; y += 14) {
+			canvas.drawLine(198, y, 282, y - 6, mThread);
+		}
+		mTipPaint.setAlpha(mAlpha);
+		canvas.drawPath(mTip, mTipPaint);
+
+		canvas.restoreToCount(save);
+		if (mRunning) invalidateSelf();
+	}
+
+	@Override
+	public int getIntrinsicWidth() {
+		return mWidth;
+	}
+
+	@Override
+	public int getIntrinsicHeight() {
+		return mHeight;
+	}
+
+	@Override
+	public void setAlpha(int alpha) {
+		mAlpha = alpha;
+		invalidateSelf();
+	}
+
+	@Override
+	public void setColorFilter(ColorFilter cf) {
+		mGlassOff.setColorFilter(cf);
+		mGlassOn.setColorFilter(cf);
+		mGlow.setColorFilter(cf);
+		mWire.setColorFilter(cf);
+		mMetal.setColorFilter(cf);
+		mThread.setColorFilter(cf);
+		mTipPaint.setColorFilter(cf);
+		invalidateSelf();
+	}
+
+	@Override
+	public int getOpacity() {
+		return PixelFormat.TRANSLUCENT;
+	}
+}
@@ -0,0 +1,121 @@
+package com.scottmain.android.searchlight;
+
+import java.util.List;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.hardware.Camera;
+import android.os.Build;
+
+/**
+ * What we've learned about the legacy camera, kept across launches so later
+ * ones skip the discovery: the sensor orientation, whether there's a torch
+ * flash mode, and the preview size and frame rate range picked for each use.
+ *
+ * <p>Entries are keyed by camera id, and preview sizes also by the surface
+ * size they were picked for. The whole store belongs to one OS build, and is
+ * cleared when {@link Build#FINGERPRINT} changes, since an update can change
+ * what the camera HAL reports.</p>
+ *
+ * <p>Camera thread only. The preferences file is first read there too, not
+ * on the UI thread.</p>
+ */
+class CameraCapabilities {
+	private static final String PREFS_NAME = "camera_capabilities";
+	private static final String KEY_FINGERPRINT = "fingerprint";
+
+	private final Context mContext;
+	private final int mCameraId;
+	private final String mCameraPrefix;
+	private SharedPreferences mPrefs;
+	private Boolean mHasTorch; // asked for on every switch, so kept in memory too
+
+	CameraCapabilities(Context context, int cameraId) {
+		mContext = context.getApplicationContext();
+		mCameraId = cameraId;
+		mCameraPrefix = "camera" + cameraId + ".";
+	}
+
+	/** The sensor's orientation, as in {@link Camera.CameraInfo#orientation} */
+	int getOrientation() {
+		final String key = mCameraPrefix + "orientation";
+		int orientation = prefs().getInt(key, -1);
+		if (orientation < 0) {
+			Camera.CameraInfo info = new Camera.CameraInfo();
+			Camera.getCameraInfo(mCameraId, info);
+			orientation = info.orientation;
+			prefs().edit().putInt(key, orientation).apply();
+		}
+		return orientation;
+	}
+
+	/**
+	 * Whether the camera offers {@link Camera.Parameters#FLASH_MODE_TORCH}. A
+	 * camera that doesn't list its flash modes is given the benefit of the doubt.
+	 */
+	boolean hasTorch(Camera.Parameters parameters) {
+		if (mHasTorch == null) {
+			final String key = mCameraPrefix + "torch";
+			SharedPreferences prefs = prefs();
+			if (prefs.contains(key)) {
+				mHasTorch = prefs.getBoolean(key, true);
+			} else {
+				List<String> modes = parameters.getSupportedFlashModes();
+				mHasTorch = modes == null || modes.contains(Camera.Parameters.FLASH_MODE_TORCH);
+				prefs.edit().putBoolean(key, mHasTorch).apply();
+			}
+		}
+		return mHasTorch;
+	}
+
+	/**
+	 * @param use what the size is for, such as the surface size it was picked for
+	 * @return the width and height stored for this use, or null if there's none yet
+	 */
+	int[] getPreviewSize(String use) {
+		return getPair(mCameraPrefix + "size." + use);
+	}
+
+	void putPreviewSize(String use, int width, int height) {
+		putPair(mCameraPrefix + "size." + use, width, height);
+	}
+
+	/** @return the min and max frame rates stored for this use, or null if there's none yet */
+	int[] getFpsRange(String use) {
+		return getPair(mCameraPrefix + "fps." + use);
+	}
+
+	void putFpsRange(String use, int min, int max) {
+		putPair(mCameraPrefix + "fps." + use, min, max);
+	}
+
+	private int[] getPair(String key) {
+		String value = prefs().getString(key, null);
+		if (value == null) return null;
+		int comma = value.indexOf(',');
+		try {
+			return new int[] {
+				Integer.parseInt(value.substring(0, comma)),
+				Integer.parseInt(value.substring(comma + 1))
+			};
+		} catch (RuntimeException e) {
+			// Not something we wrote; find the value again
+			return null;
+		}
+	}
+
+	private void putPair(String key, int first, int second) {
+		prefs().edit().putString(key, first + "," + second).apply();
+	}
+
+	private SharedPreferences prefs() {
+		if (mPrefs == null) {
+			mPrefs = mContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+			if (!Build.FINGERPRINT.equals(mPrefs.getString(KEY_FINGERPRINT, null))) {
+				// New device or new OS build; nothing we knew still holds
+				mPrefs.edit().clear().putString(KEY_FINGERPRINT, Build.FINGERPRINT).apply();
+			}
+		}
+		return mPrefs;
+	}
+}
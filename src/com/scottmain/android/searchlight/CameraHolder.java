@@ -0,0 +1,108 @@
+package com.scottmain.android.searchlight;
+
+import android.annotation.TargetApi;
+import android.graphics.SurfaceTexture;
+import android.hardware.Camera;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Process-scoped owner of an open camera that no PreviewSurface holds right now.
+ *
+ * <p>It covers two handoffs. SearchLight pre-warms the camera here before it
+ * inflates its layout, so the camera open and parameter read overlap with
+ * building the UI. And across a configuration change (rotation, multi-window
+ * resize, theme) the old PreviewSurface retains its camera here instead of
+ * releasing it, so the new one can pick it up without a reopen. A preview
+ * that runs into a texture of its own, as the lean modes' does on API 11+, is
+ * handed over still running, so the light doesn't even blink.</p>
+ *
+ * <p>The held camera lives only on the camera thread; every method except
+ * {@link #prewarm()} and {@link #releaseUnclaimed()} must be called from there.</p>
+ */
+final class CameraHolder {
+	private final static String TAG = "CameraHolder";
+	private static CameraParameterCache sHeld;
+	private static SurfaceTexture sHeldTarget; // what the held camera is still previewing into
+
+	private CameraHolder() {}
+
+	/** Begin opening the camera, unless one is already held. Safe to call from any thread. */
+	static void prewarm() {
+		CameraThread.getHandler().post(new Runnable() {
+			public void run() {
+				if (sHeld != null) return;
+				try {
+					CameraParameterCache warm = new CameraParameterCache();
+					warm.attach(Camera.open());
+					sHeld = warm;
+					LatencyRecorder.get().mark(LatencyRecorder.CAMERA_OPENED);
+				} catch (RuntimeException e) {
+					// PreviewSurface will try again and report the failure
+					Log.w(TAG, "Could not pre-warm camera " + e);
+				}
+			}
+		});
+	}
+
+	/** Release a held camera that nobody took, so other apps can have it. Safe to call from any thread. */
+	static void releaseUnclaimed() {
+		CameraThread.getHandler().post(new Runnable() {
+			public void run() {
+				release(take(), takePreviewTarget());
+			}
+		});
+	}
+
+	/**
+	 * Camera thread only. Keep an open camera for the next PreviewSurface to take.
+	 * @param previewTarget the texture the camera is still previewing into, or
+	 *        null if its preview is stopped
+	 */
+	static void retain(CameraParameterCache parameters, SurfaceTexture previewTarget) {
+		if (sHeld != null && sHeld != parameters) {
+			// Shouldn't happen, but never leak a camera
+			release(take(), takePreviewTarget());
+		}
+		sHeld = parameters;
+		sHeldTarget = previewTarget;
+	}
+
+	/**
+	 * Camera thread only.
+	 * @return the held camera's parameter cache, or null if nothing is held
+	 */
+	static CameraParameterCache take() {
+		CameraParameterCache held = sHeld;
+		sHeld = null;
+		return held;
+	}
+
+	/**
+	 * Camera thread only. Call right after {@link #take()}.
+	 * @return the texture the camera taken is still previewing into, or null
+	 *         if its preview is stopped
+	 */
+	static SurfaceTexture takePreviewTarget() {
+		SurfaceTexture target = sHeldTarget;
+		sHeldTarget = null;
+		return target;
+	}
+
+	private static void release(CameraParameterCache held, SurfaceTexture target) {
+		if (held != null) {
+			Camera camera = held.getCamera();
+			held.detach();
+			camera.release();
+		}
+		if (target != null) releaseTarget(target);
+	}
+
+	/** Camera thread only. SurfaceTexture.release() arrived in ICS; before that the GC frees it. */
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	static void releaseTarget(SurfaceTexture target) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+			target.release();
+		}
+	}
+}
@@ -0,0 +1,206 @@
+package com.scottmain.android.searchlight;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+/**
+ * Torch backend for API 23+ that uses {@link CameraManager#setTorchMode}.
+ * Unlike the legacy path in {@link PreviewSurface}, this needs no surface and
+ * no running preview, so nothing but the LED is powered.
+ */
+@TargetApi(Build.VERSION_CODES.M)
+class CameraManagerTorch implements TorchBackend {
+	private final static String TAG = "CameraManagerTorch";
+	CameraManager mManager;
+	Callback mCallback;
+	Handler mCameraHandler;
+	Handler mUiHandler;
+	volatile String mCameraId; // written on the camera thread only
+	volatile int mMaxStrength = 1; // torch strength levels the camera offers; 1 means on/off only
+	TorchCommandQueue mLightCommands; // so a burst of taps makes one setTorchMode() call
+	// A timing thread's switch and the camera thread's commands take turns, so
+	// each lands whole and in order
+	private final Object mSwitchTurn = new Object();
+
+	static boolean isSupported() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.M;
+	}
+
+	CameraManagerTorch(Context context, Callback callback) {
+		mManager = (CameraManager) context.getApplicationContext()
+				.getSystemService(Context.CAMERA_SERVICE);
+		mCallback = callback;
+		mCameraHandler = CameraThread.getHandler();
+		mUiHandler = new Handler(Looper.getMainLooper());
+		mLightCommands = new TorchCommandQueue(CameraThread.getExecutor(), new TorchCommandQueue.Target() {
+			public void setLight(boolean on) {
+				setTorchMode(on);
+			}
+		});
+	}
+
+	public void open() {
+		mCameraHandler.post(new Runnable() {
+			public void run() {
+				if (mCameraId == null) {
+					mCameraId = findFlashCamera();
+					mMaxStrength = readMaxStrength(mCameraId);
+				}
+				if (mCameraId != null) {
+					postCameraReady();
+				} else {
+					postCameraNotAvailable();
+				}
+			}
+		});
+		mLightCommands.fence();
+	}
+
+	public void release() {
+		mCameraHandler.post(new Runnable() {
+			public void run() {
+				setTorchMode(false);
+				if (Log.isLoggable(TAG, Log.DEBUG)) {
+					Log.d(TAG, mLightCommands.toString());
+				}
+			}
+		});
+		mLightCommands.fence();
+	}
+
+	public void lightOn() {
+		mLightCommands.submit(true);
+	}
+
+	public void lightOff() {
+		mLightCommands.submit(false);
+	}
+
+	/** Whether {@link #setLevel(float)} dims the LED itself; known once cameraReady() is called */
+	boolean canSetLevel() {
+		return mMaxStrength > 1;
+	}
+
+	/** Turn the light on at a brightness from 0 to 1, where {@link #canSetLevel()} */
+	void setLevel(final float level) {
+		mCameraHandler.post(new Runnable() {
+			public void run() {
+				setTorchStrength(level);
+			}
+		});
+		mLightCommands.fence();
+	}
+
+	/**
+	 * setTorchMode() is a plain binder call, so the timing thread can make it
+	 * directly. An interrupted caller is refused once it has its turn, so its
+	 * switch can't land after a command the camera thread has already made.
+	 */
+	public boolean applyTorch(boolean on) {
+		synchronized (mSwitchTurn) {
+			String cameraId = mCameraId;
+			if (cameraId == null || Thread.currentThread().isInterrupted()) return false;
+			try {
+				mManager.setTorchMode(cameraId, on);
+				return true;
+			} catch (CameraAccessException e) {
+				return false;
+			} catch (IllegalArgumentException e) {
+				return false;
+			}
+		}
+	}
+
+	/** Camera thread only */
+	private void setTorchMode(boolean on) {
+		if (mCameraId == null) return;
+		synchronized (mSwitchTurn) {
+			try {
+				mManager.setTorchMode(mCameraId, on);
+				if (on) LatencyRecorder.get().mark(LatencyRecorder.TORCH_ON);
+			} catch (CameraAccessException e) {
+				Log.e(TAG, "Could not set torch mode " + e);
+				if (on) postCameraNotAvailable();
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "Camera went away " + e);
+				mCameraId = null;
+			}
+		}
+	}
+
+	/** Camera thread only */
+	@TargetApi(Build.VERSION_CODES.TIRAMISU)
+	private void setTorchStrength(float level) {
+		if (mCameraId == null || mMaxStrength <= 1) return;
+		int strength = Math.max(1, Math.min(Math.round(level * mMaxStrength), mMaxStrength));
+		synchronized (mSwitchTurn) {
+			try {
+				mManager.turnOnTorchWithStrengthLevel(mCameraId, strength);
+				LatencyRecorder.get().mark(LatencyRecorder.TORCH_ON);
+			} catch (CameraAccessException e) {
+				Log.e(TAG, "Could not set torch strength " + e);
+				postCameraNotAvailable();
+			} catch (IllegalArgumentException e) {
+				Log.e(TAG, "Camera went away " + e);
+				mCameraId = null;
+			}
+		}
+	}
+
+	/** Camera thread only. Torch strength levels arrived in Tiramisu; before that it's on or off */
+	@TargetApi(Build.VERSION_CODES.TIRAMISU)
+	private int readMaxStrength(String cameraId) {
+		if (cameraId == null || Build.VERSION.SDK_INT < Build.VERSION_CODES.TIRAMISU) return 1;
+		try {
+			Integer max = mManager.getCameraCharacteristics(cameraId)
+					.get(CameraCharacteristics.FLASH_INFO_STRENGTH_MAXIMUM_LEVEL);
+			return max != null ? max : 1;
+		} catch (CameraAccessException e) {
+			Log.e(TAG, "Could not read torch strength levels " + e);
+			return 1;
+		}
+	}
+
+	/** Camera thread only. Prefer the back-facing camera, which is where the flash usually is */
+	private String findFlashCamera() {
+		String fallback = null;
+		try {
+			for (String id : mManager.getCameraIdList()) {
+				CameraCharacteristics c = mManager.getCameraCharacteristics(id);
+				Boolean hasFlash = c.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+				if (hasFlash == null || !hasFlash) continue;
+				Integer facing = c.get(CameraCharacteristics.LENS_FACING);
+				if (facing != null && facing == CameraCharacteristics.LENS_FACING_BACK) {
+					return id;
+				}
+				if (fallback == null) fallback = id;
+			}
+		} catch (CameraAccessException e) {
+			Log.e(TAG, "Could not list cameras " + e);
+		}
+		return fallback;
+	}
+
+	private void postCameraReady() {
+		mUiHandler.post(new Runnable() {
+			public void run() {
+				mCallback.cameraReady();
+			}
+		});
+	}
+
+	private void postCameraNotAvailable() {
+		mUiHandler.post(new Runnable() {
+			public void run() {
+				mCallback.cameraNotAvailable();
+			}
+		});
+	}
+}
@@ -0,0 +1,182 @@
+package com.scottmain.android.searchlight;
+
+import android.annotation.TargetApi;
+import android.hardware.Camera;
+import android.hardware.Camera.Size;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * Keeps the last Camera.Parameters we applied, so a flash mode or preview size
+ * only goes through Camera.setParameters() when the value actually differs.
+ * Each round-trip flattens and re-parses the whole parameter string, which adds
+ * up when the light is toggled quickly.
+ *
+ * <p>The parameters are read once per attach() instead of on every surface
+ * change. Not thread safe; use it from the camera thread only.</p>
+ */
+class CameraParameterCache {
+	private final static String TAG = "CameraParameterCache";
+	private Camera mCamera;
+	private Camera.Parameters mParameters;
+	private String mFlashMode;
+	private int mPreviewWidth;
+	private int mPreviewHeight;
+	private int mFpsMin;
+	private int mFpsMax;
+	private boolean mExposureLocked;
+
+	private int mAppliedCount;
+	private int mSkippedCount;
+
+	/** Start tracking a freshly opened camera. */
+	void attach(Camera camera) {
+		mCamera = camera;
+		readBack();
+	}
+
+	/** Forget the camera; call this before it's released. */
+	void detach() {
+		mCamera = null;
+		mParameters = null;
+		mFlashMode = null;
+		mPreviewWidth = 0;
+		mPreviewHeight = 0;
+		mFpsMin = 0;
+		mFpsMax = 0;
+	}
+
+	/** The attached camera, or null */
+	Camera getCamera() {
+		return mCamera;
+	}
+
+	/**
+	 * The cached parameters, for reading capabilities such as the supported
+	 * preview sizes. Change values only through the setters below.
+	 */
+	Camera.Parameters getParameters() {
+		return mParameters;
+	}
+
+	/** @return true if the camera was actually updated */
+	boolean setFlashMode(String mode) {
+		if (mCamera == null) return false;
+		if (mode.equals(mFlashMode)) {
+			mSkippedCount++;
+			return false;
+		}
+		mParameters.setFlashMode(mode);
+		if (apply()) {
+			mFlashMode = mode;
+			return true;
+		}
+		return false;
+	}
+
+	/** @return true if the camera was actually updated */
+	boolean setPreviewSize(int width, int height) {
+		if (mCamera == null) return false;
+		if (width == mPreviewWidth && height == mPreviewHeight) {
+			mSkippedCount++;
+			return false;
+		}
+		mParameters.setPreviewSize(width, height);
+		if (apply()) {
+			mPreviewWidth = width;
+			mPreviewHeight = height;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Rates are in frames per second times 1000, as getSupportedPreviewFpsRange() gives them.
+	 * @return true if the camera was actually updated
+	 */
+	boolean setPreviewFpsRange(int min, int max) {
+		if (mCamera == null) return false;
+		if (min == mFpsMin && max == mFpsMax) {
+			mSkippedCount++;
+			return false;
+		}
+		mParameters.setPreviewFpsRange(min, max);
+		if (apply()) {
+			mFpsMin = min;
+			mFpsMax = max;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Hold the exposure where it is, so frame brightness follows the scene.
+	 * Does nothing before Ice Cream Sandwich, or on cameras that can't lock it.
+	 * @return true if the camera was actually updated
+	 */
+	@TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+	boolean setAutoExposureLock(boolean locked) {
+		if (mCamera == null) return false;
+		if (locked == mExposureLocked) {
+			mSkippedCount++;
+			return false;
+		}
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.ICE_CREAM_SANDWICH
+				|| !mParameters.isAutoExposureLockSupported()) {
+			return false;
+		}
+		mParameters.setAutoExposureLock(locked);
+		if (apply()) {
+			mExposureLocked = locked;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Some cameras drop the torch when the preview stops, so after a restart
+	 * the flash mode has to be set again even if it's unchanged.
+	 */
+	void forgetFlashMode() {
+		mFlashMode = null;
+	}
+
+	/** Number of Camera.setParameters() calls made since this cache was created */
+	int getAppliedCount() {
+		return mAppliedCount;
+	}
+
+	/** Number of writes skipped because the camera already had the value */
+	int getSkippedCount() {
+		return mSkippedCount;
+	}
+
+	private boolean apply() {
+		try {
+			mCamera.setParameters(mParameters);
+			mAppliedCount++;
+			return true;
+		} catch (RuntimeException e) {
+			// The camera rejected the whole set, so our copy no longer matches it
+			Log.e(TAG, "Could not set camera parameters " + e);
+			readBack();
+			return false;
+		}
+	}
+
+	private void readBack() {
+		mParameters = mCamera.getParameters();
+		mFlashMode = mParameters.getFlashMode();
+		Size size = mParameters.getPreviewSize();
+		if (size != null) {
+			mPreviewWidth = size.width;
+			mPreviewHeight = size.height;
+		}
+		int[] fps = new int[2];
+		mParameters.getPreviewFpsRange(fps);
+		mFpsMin = fps[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
+		mFpsMax = fps[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
+		mExposureLocked = Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH
+				&& mParameters.getAutoExposureLock();
+	}
+}
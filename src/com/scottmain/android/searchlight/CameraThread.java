@@ -0,0 +1,41 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+
+/**
+ * The single worker thread that every camera and torch call runs on, so the
+ * UI thread never waits on the camera HAL. It's shared by the whole process
+ * and started on first use.
+ */
+final class CameraThread {
+	private static HandlerThread sThread;
+	private static Handler sHandler;
+	private static Executor sExecutor;
+
+	private CameraThread() {}
+
+	static synchronized Handler getHandler() {
+		if (sHandler == null) {
+			sThread = new HandlerThread("CameraThread");
+			sThread.start();
+			sHandler = new Handler(sThread.getLooper());
+		}
+		return sHandler;
+	}
+
+	/** The same thread as an Executor, for code that shouldn't depend on Handler */
+	static synchronized Executor getExecutor() {
+		if (sExecutor == null) {
+			final Handler handler = getHandler();
+			sExecutor = new Executor() {
+				public void execute(Runnable command) {
+					handler.post(command);
+				}
+			};
+		}
+		return sExecutor;
+	}
+}
@@ -0,0 +1,264 @@
+package com.scottmain.android.searchlight;
+
+import android.graphics.ImageFormat;
+import android.hardware.Camera;
+import android.os.Handler;
+
+/**
+ * Hands preview frames to an {@link Analyzer} on a worker thread, using a
+ * small ring of buffers that the camera fills in place. Nothing is allocated
+ * per frame: the buffers are sized once for the preview size and go back to
+ * the camera when the analyzer is done with them.
+ *
+ * <p>At most one frame waits for the analyzer. If a newer one arrives first,
+ * the waiting one is dropped and its buffer goes straight back to the camera,
+ * so a slow analyzer always sees the latest frame rather than a backlog.</p>
+ *
+ * <p>{@link #attach(Camera, int, int, int)} and {@link #detach()} are for the
+ * camera thread, which frames arrive on. The counters may be read anywhere.
+ * The worker thread runs from the first attach() until {@link #quit()}.</p>
+ */
+class FramePipeline implements Camera.PreviewCallback, Runnable {
+	private static final int BUFFER_COUNT = 3; // one being filled, one waiting, one being analyzed
+
+	/** Looks at preview frames. Worker thread only. */
+	interface Analyzer {
+		/**
+		 * @param data the frame, in the preview format; only valid until this returns
+		 * @param format an ImageFormat constant; both NV21 and YV12 start with the
+		 *        full-size Y (luminance) plane
+		 * @param arrivalNanos when the frame reached us, by the pipeline's clock
+		 */
+		public void onFrame(byte[] data, int width, int height, int format, long arrivalNanos);
+	}
+
+	private final Handler mCameraHandler;
+	private final MonotonicClock mClock;
+	private volatile Analyzer mAnalyzer;
+	private Thread mWorker; // guarded by this; null until attach(), and after quit()
+
+	// Camera thread only
+	private Camera mCamera; // null while detached
+	private final byte[][] mRecycling = new byte[BUFFER_COUNT + 1][];
+
+	// Guarded by this
+	private byte[][] mBuffers; // the current ring; buffers of an older size are let go
+	private boolean[] mWithWorker; // waiting, being analyzed or on their way back
+	private int mWidth;
+	private int mHeight;
+	private int mFormat;
+	private byte[] mPending;
+	private long mPendingArrival;
+	private final byte[][] mDone = new byte[BUFFER_COUNT + 1][]; // room for one from before a size change
+	private int mDoneCount;
+	private boolean mRecycleScheduled;
+	private long mReceived;
+	private long mAnalyzed;
+	private long mDropped;
+	private long mLatencySum;
+	private long mMaxLatency;
+
+	/** Gives the buffers the analyzer is done with back to the camera */
+	private final Runnable mRecycle = new Runnable() {
+		public void run() {
+			int count;
+			synchronized (FramePipeline.this) {
+				count = mDoneCount;
+				for (int i = 0; i < count; i++) {
+					mRecycling[i] = mDone[i];
+					mDone[i] = null;
+					release(mRecycling[i]);
+				}
+				mDoneCount = 0;
+				mRecycleScheduled = false;
+			}
+			for (int i = 0; i < count; i++) {
+				giveToCamera(mRecycling[i]);
+				mRecycling[i] = null;
+			}
+		}
+	};
+
+	/** @param cameraHandler the camera thread, which the frames arrive on */
+	FramePipeline(Handler cameraHandler, MonotonicClock clock) {
+		mCameraHandler = cameraHandler;
+		mClock = clock;
+	}
+
+	/** Any thread. Frames go nowhere while there's no analyzer. */
+	void setAnalyzer(Analyzer analyzer) {
+		mAnalyzer = analyzer;
+	}
+
+	/**
+	 * Camera thread only. Start delivering frames from the camera, which must
+	 * already be set to this preview size and format.
+	 */
+	void attach(Camera camera, int width, int height, int format) {
+		if (mCamera != null) detach();
+		final int size = width * height * ImageFormat.getBitsPerPixel(format) / 8;
+		synchronized (this) {
+			if (mBuffers == null || mBuffers[0].length != size) {
+				// Anything the worker still holds is the wrong size now, and is let go
+				mBuffers = new byte[BUFFER_COUNT][size];
+				mWithWorker = new boolean[BUFFER_COUNT];
+			}
+			mWidth = width;
+			mHeight = height;
+			mFormat = format;
+			if (mWorker == null) {
+				mWorker = new Thread(this, "FramePipeline");
+				mWorker.setDaemon(true);
+				mWorker.start();
+			}
+		}
+		mCamera = camera;
+		for (int i = 0; i < BUFFER_COUNT; i++) {
+			byte[] buffer;
+			synchronized (this) {
+				buffer = mWithWorker[i] ? null : mBuffers[i];
+			}
+			if (buffer != null) camera.addCallbackBuffer(buffer);
+		}
+		camera.setPreviewCallbackWithBuffer(this);
+	}
+
+	/**
+	 * Any thread. End the worker thread and let go of the analyzer, so neither
+	 * outlives the camera that fed them. A frame being analyzed finishes first.
+	 * A later attach() starts a new worker, for the analyzer set by then.
+	 */
+	void quit() {
+		mAnalyzer = null;
+		synchronized (this) {
+			mWorker = null;
+			if (mPending != null) {
+				release(mPending);
+				mPending = null;
+			}
+			notify();
+		}
+	}
+
+	/**
+	 * Camera thread only. Stop delivering frames; the camera forgets the
+	 * buffers it held, and a frame still waiting is never analyzed.
+	 */
+	void detach() {
+		if (mCamera == null) return;
+		mCamera.setPreviewCallbackWithBuffer(null);
+		mCamera = null;
+		synchronized (this) {
+			if (mPending != null) {
+				release(mPending);
+				mPending = null;
+			}
+		}
+	}
+
+	/** Camera thread */
+	public void onPreviewFrame(byte[] data, Camera camera) {
+		if (data == null) return;
+		final long arrival = mClock.nanoTime();
+		byte[] dropped = null;
+		synchronized (this) {
+			mReceived++;
+			final int index = indexOf(data);
+			if (mAnalyzer == null || index < 0) {
+				dropped = data;
+			} else {
+				if (mPending != null) {
+					dropped = mPending;
+					release(dropped);
+				}
+				mPending = data;
+				mPendingArrival = arrival;
+				mWithWorker[index] = true;
+				notify();
+			}
+			if (dropped != null) mDropped++;
+		}
+		if (dropped != null) giveToCamera(dropped);
+	}
+
+	/** The worker thread, until quit() replaces it with none */
+	public void run() {
+		final Thread self = Thread.currentThread();
+		while (true) {
+			byte[] frame;
+			long arrival;
+			int width;
+			int height;
+			int format;
+			synchronized (this) {
+				while (mPending == null && mWorker == self) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Only quit() stops the worker; keep waiting
+					}
+				}
+				if (mWorker != self) return;
+				frame = mPending;
+				mPending = null;
+				arrival = mPendingArrival;
+				width = mWidth;
+				height = mHeight;
+				format = mFormat;
+			}
+
+			final Analyzer analyzer = mAnalyzer;
+			if (analyzer != null) analyzer.onFrame(frame, width, height, format, arrival);
+			final long latency = mClock.nanoTime() - arrival;
+
+			boolean schedule;
+			synchronized (this) {
+				if (analyzer != null) {
+					mAnalyzed++;
+					mLatencySum += latency;
+					mMaxLatency = Math.max(mMaxLatency, latency);
+				} else {
+					mDropped++;
+				}
+				mDone[mDoneCount++] = frame;
+				schedule = !mRecycleScheduled;
+				mRecycleScheduled = true;
+			}
+			if (schedule) mCameraHandler.post(mRecycle);
+		}
+	}
+
+	/** Camera thread only */
+	private void giveToCamera(byte[] buffer) {
+		if (mCamera == null) return; // stays with us until the next attach
+		synchronized (this) {
+			if (indexOf(buffer) < 0) return; // from before a size change
+		}
+		mCamera.addCallbackBuffer(buffer);
+	}
+
+	/** Guarded by this. The buffer is no longer the worker's. */
+	private void release(byte[] buffer) {
+		int i = indexOf(buffer);
+		if (i >= 0) mWithWorker[i] = false;
+	}
+
+	/** Guarded by this */
+	private int indexOf(byte[] buffer) {
+		for (int i = 0; i < BUFFER_COUNT; i++) {
+			if (mBuffers[i] == buffer) return i;
+		}
+		return -1;
+	}
+
+	/** Guarded by this. Mean time from a frame's arrival to the end of its analysis, in milliseconds. */
+	private float getMeanLatencyMillis() {
+		return mAnalyzed == 0 ? 0 : (float) (mLatencySum / mAnalyzed / 1e6);
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "frames received " + mReceived + ", analyzed " + mAnalyzed + ", dropped " + mDropped
+				+ ", latency mean " + getMeanLatencyMillis() + " ms, max " + mMaxLatency / 1e6f + " ms";
+	}
+}
@@ -0,0 +1,109 @@
+package com.scottmain.android.searchlight;
+
+import java.util.Arrays;
+
+/**
+ * Records time-to-light: how long after launch each startup checkpoint is
+ * reached, ending when FLASH_MODE_TORCH is applied. Each launch adds one
+ * sample per phase to a fixed-size ring, and {@link #report()} summarizes
+ * them as p50/p95/p99.
+ *
+ * <p>{@link #mark(int)} only reads the clock and stores a long, so it's cheap
+ * enough to leave in release builds. Safe to call from any thread.</p>
+ */
+class LatencyRecorder {
+	static final int ON_CREATE = 0;
+	static final int SURFACE_CREATED = 1;
+	static final int CAMERA_OPENED = 2;
+	static final int SURFACE_CHANGED = 3;
+	static final int CAMERA_READY = 4;
+	static final int TORCH_ON = 5;
+	static final int PHASE_COUNT = 6;
+
+	private static final String[] PHASE_NAMES = {
+		"onCreate", "surfaceCreated", "cameraOpened", "surfaceChanged", "cameraReady", "torchOn"
+	};
+
+	private static final int CAPACITY = 64; // launches kept per phase
+
+	private static LatencyRecorder sInstance;
+
+	private final MonotonicClock mClock;
+	private final long[][] mSamples = new long[PHASE_COUNT][CAPACITY];
+	private final int[] mCounts = new int[PHASE_COUNT];
+	private final long[] mScratch = new long[CAPACITY];
+	private long mOrigin;
+	private int mMarked; // bit per phase already marked in this launch
+	private boolean mFirstLaunch = true;
+
+	/** The process-wide recorder. Its origin is process start, or close to it. */
+	static synchronized LatencyRecorder get() {
+		if (sInstance == null) {
+			sInstance = new LatencyRecorder(MonotonicClock.SYSTEM);
+		}
+		return sInstance;
+	}
+
+	LatencyRecorder(MonotonicClock clock) {
+		mClock = clock;
+		mOrigin = clock.nanoTime();
+	}
+
+	/**
+	 * Start timing a launch. The first launch in a process is timed from when
+	 * this recorder was created; later launches are timed from this call.
+	 */
+	synchronized void begin() {
+		if (!mFirstLaunch) {
+			mOrigin = mClock.nanoTime();
+		}
+		mFirstLaunch = false;
+		mMarked = 0;
+	}
+
+	/** Record that a phase was reached. Only the first mark per phase per launch counts. */
+	synchronized void mark(int phase) {
+		int bit = 1 << phase;
+		if ((mMarked & bit) != 0) return;
+		mMarked |= bit;
+		mSamples[phase][mCounts[phase] % CAPACITY] = mClock.nanoTime() - mOrigin;
+		mCounts[phase]++;
+	}
+
+	/** Number of samples kept for a phase, at most the ring capacity */
+	synchronized int getSampleCount(int phase) {
+		return Math.min(mCounts[phase], CAPACITY);
+	}
+
+	/**
+	 * @param percentile 0 to 100
+	 * @return nanoseconds after launch, or -1 if the phase has no samples yet
+	 */
+	synchronized long getPercentile(int phase, int percentile) {
+		int n = getSampleCount(phase);
+		if (n == 0) return -1;
+		System.arraycopy(mSamples[phase], 0, mScratch, 0, n);
+		Arrays.sort(mScratch, 0, n);
+		int index = (int) Math.ceil(percentile / 100.0 * n) - 1;
+		return mScratch[Math.max(0, Math.min(index, n - 1))];
+	}
+
+	/** One line per phase with p50/p95/p99 in milliseconds */
+	synchronized String report() {
+		StringBuilder sb = new StringBuilder();
+		for (int phase = 0; phase < PHASE_COUNT; phase++) {
+			int n = getSampleCount(phase);
+			if (n == 0) continue;
+			sb.append(PHASE_NAMES[phase])
+				.append(" p50=").append(toMillis(getPercentile(phase, 50)))
+				.append(" p95=").append(toMillis(getPercentile(phase, 95)))
+				.append(" p99=").append(toMillis(getPercentile(phase, 99)))
+				.append(" ms (n=").append(n).append(")\n");
+		}
+		return sb.toString();
+	}
+
+	private static double toMillis(long nanos) {
+		return Math.round(nanos / 10000.0) / 100.0;
+	}
+}
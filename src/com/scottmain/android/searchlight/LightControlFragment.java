@@ -1,8 +1,9 @@
 package com.scottmain.android.searchlight;
 
 import android.app.Activity;
-import android.graphics.drawable.TransitionDrawable;
 import android.os.Bundle;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.support.v4.app.Fragment;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -13,16 +14,25 @@ import android.view.animation.AnimationUtils;
 import android.widget.Button;
 import android.widget.CompoundButton;
 import android.widget.CompoundButton.OnCheckedChangeListener;
+import android.widget.EditText;
 import android.widget.ImageButton;
+import android.widget.SeekBar;
+import android.widget.SeekBar.OnSeekBarChangeListener;
+import android.widget.TextView;
 
 public class LightControlFragment extends Fragment {
 	private final static String EXTRA_MODE = "mode";
 	private final static String EXTRA_ON = "on";
 	int mCurrentMode;
 	boolean mOn;
-	TransitionDrawable mDrawable;
+	BulbDrawable mDrawable;
 	ImageButton mBulb;
 	LightSwitch mLightswitch;
+	TextView mStrobeRate;
+	TextView mStrobeStats;
+	TextView mPulseStats;
+	TextView mMorseSpeed;
+	TextView mMorseReceived;
 
 	// Empty constructor required
 	public LightControlFragment() {}
@@ -41,58 +51,238 @@ public class LightControlFragment extends Fragment {
         return fragment;
     }
 
+    @Override
+    public void onCreate(Bundle savedInstanceState) {
+    	super.onCreate(savedInstanceState);
+    	mCurrentMode = getArguments().getInt(EXTRA_MODE);
+    	mOn = getArguments().getBoolean(EXTRA_ON);
+    }
+
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container,
         Bundle savedInstanceState) {
         
-    	mCurrentMode = getArguments().getInt(EXTRA_MODE);
-    	mOn = getArguments().getBoolean(EXTRA_ON);
- 
         switch(mCurrentMode) {
         case R.id.mode_blackout:
         	return inflater.inflate(R.layout.black, container, false);
         case R.id.mode_viewfinder:
         	return inflater.inflate(R.layout.viewfinder, container, false);
         case R.id.mode_lightswitch:
+        case R.id.mode_dimmer:
         	return inflater.inflate(R.layout.lightswitch, container, false);
+        case R.id.mode_strobe:
+        	return inflater.inflate(R.layout.strobe, container, false);
+        case R.id.mode_morse:
+        	return inflater.inflate(R.layout.morse, container, false);
+        case R.id.mode_pulse:
+        	return inflater.inflate(R.layout.pulse, container, false);
         case R.id.mode_lightbulb:
+        case R.id.mode_auto:
         default:
         	return inflater.inflate(R.layout.bulb, container, false);
         }
     }
     
-    
-    
+	/** Find our own views once; the fragment is kept and reused across mode switches */
 	@Override
-	public void onResume() {
+	public void onViewCreated(View view, Bundle savedInstanceState) {
+		super.onViewCreated(view, savedInstanceState);
 
-    	// to fade the settings button
-    	ImageButton settingsButton = (ImageButton) getActivity().findViewById(R.id.button_settings);
-    	
         switch(mCurrentMode) {
         case R.id.mode_lightswitch:
-	    	mLightswitch = (LightSwitch) getActivity().findViewById(R.id.button_lightswitch);
-	    	mLightswitch.setChecked(false);
-	    	if (mOn) mLightswitch.setChecked(true);
+	    	mLightswitch = (LightSwitch) view.findViewById(R.id.button_lightswitch);
+	    	mLightswitch.setChecked(mOn);
+	    	mLightswitch.setOnCheckedChangeListener(new OnCheckedChangeListener() {
+				@Override
+				public void onCheckedChanged(CompoundButton button, boolean isChecked) {
+					mListener.onLightControlClick(isChecked);
+				}
+	    	});
+	    	break;
+        case R.id.mode_dimmer:
+	    	mLightswitch = (LightSwitch) view.findViewById(R.id.button_lightswitch);
+	    	mLightswitch.setLevelMode(true);
+	    	mLightswitch.setLevel(settings().getFloat(SettingsStore.KEY_DIM_LEVEL, mLightswitch.getLevel()));
+	    	mLightswitch.setChecked(mOn);
 	    	mLightswitch.setOnCheckedChangeListener(new OnCheckedChangeListener() {
 				@Override
 				public void onCheckedChanged(CompoundButton button, boolean isChecked) {
+					// Set the level first, so the light comes on at the level it was let go at
+					mListener.onLightLevelChanged(mLightswitch.getLevel());
 					mListener.onLightControlClick(isChecked);
 				}
 	    	});
+	    	mLightswitch.setOnLevelChangeListener(new LightSwitch.OnLevelChangeListener() {
+				@Override
+				public void onLevelChanged(LightSwitch view, float level) {
+					mListener.onLightLevelChanged(level);
+				}
+	    	});
+	    	mListener.onLightLevelChanged(mLightswitch.getLevel());
+	    	break;
+        case R.id.mode_strobe:
+        	mStrobeRate = (TextView) view.findViewById(R.id.strobe_rate_label);
+        	mStrobeStats = (TextView) view.findViewById(R.id.strobe_stats);
+        	SeekBar rate = (SeekBar) view.findViewById(R.id.strobe_rate);
+        	rate.setProgress(Math.round(settings().getFloat(SettingsStore.KEY_STROBE_RATE,
+        			StrobeEngine.MIN_FREQUENCY + rate.getProgress()) - StrobeEngine.MIN_FREQUENCY));
+        	rate.setOnSeekBarChangeListener(new OnSeekBarChangeListener() {
+				@Override
+				public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+					setStrobeRate(progress);
+				}
+				@Override
+				public void onStartTrackingTouch(SeekBar seekBar) {}
+				@Override
+				public void onStopTrackingTouch(SeekBar seekBar) {}
+        	});
+        	setStrobeRate(rate.getProgress());
+        	findBulb(view);
+        	break;
+        case R.id.mode_morse:
+        	EditText text = (EditText) view.findViewById(R.id.morse_text);
+        	text.addTextChangedListener(new TextWatcher() {
+				@Override
+				public void afterTextChanged(Editable s) {
+					mListener.onMorseTextChanged(s);
+				}
+				@Override
+				public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+				@Override
+				public void onTextChanged(CharSequence s, int start, int before, int count) {}
+        	});
+        	mListener.onMorseTextChanged(text.getText());
+        	mMorseSpeed = (TextView) view.findViewById(R.id.morse_speed_label);
+        	SeekBar speed = (SeekBar) view.findViewById(R.id.morse_speed);
+        	speed.setProgress(Math.round(settings().getFloat(SettingsStore.KEY_MORSE_SPEED,
+        			MorsePlayer.MIN_WPM + speed.getProgress()) - MorsePlayer.MIN_WPM));
+        	speed.setOnSeekBarChangeListener(new OnSeekBarChangeListener() {
+				@Override
+				public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+					setMorseSpeed(progress);
+				}
+				@Override
+				public void onStartTrackingTouch(SeekBar seekBar) {}
+				@Override
+				public void onStopTrackingTouch(SeekBar seekBar) {}
+        	});
+        	setMorseSpeed(speed.getProgress());
+        	findBulb(view);
+        	break;
+        case R.id.mode_pulse:
+        	mPulseStats = (TextView) view.findViewById(R.id.pulse_stats);
+        	findBulb(view);
+        	break;
+        case R.id.mode_viewfinder:
+        	mMorseReceived = (TextView) view.findViewById(R.id.morse_received);
+        	findBulb(view);
+        	break;
+        case R.id.mode_lightbulb:
+        case R.id.mode_auto:
+        	findBulb(view);
+            break;
+        }
+	}
+
+	/** Where the torch settings were left; the activity saves them as it stops */
+	private SettingsStore settings() {
+		return SettingsStore.get(getActivity());
+	}
+
+	/**
+	 * The strobe, Morse, auto and music modes have the same bulb as the light
+	 * bulb mode; the viewfinder has a small one in the corner
+	 */
+	private void findBulb(View view) {
+    	mBulb = (ImageButton) view.findViewById(R.id.button_bulb);
+        mDrawable = new BulbDrawable(getResources(), mCurrentMode == R.id.mode_viewfinder);
+        mBulb.setImageDrawable(mDrawable);
+	}
+
+	/** The seek bar runs from 0, for the slowest rate the strobe allows */
+	private void setStrobeRate(int progress) {
+		int hz = (int) StrobeEngine.MIN_FREQUENCY + progress;
+		mStrobeRate.setText(getString(R.string.strobe_rate, hz));
+		mListener.onStrobeRateChanged(hz);
+	}
+
+	/** The seek bar runs from 0, for the slowest speed the player allows */
+	private void setMorseSpeed(int progress) {
+		int wpm = (int) MorsePlayer.MIN_WPM + progress;
+		mMorseSpeed.setText(getString(R.string.morse_speed, wpm));
+		mListener.onMorseSpeedChanged(wpm);
+	}
+
+	/** Show how well the strobe is keeping time; strobe mode only */
+	void showStrobeStats(CharSequence stats) {
+		if (mStrobeStats != null) {
+			mStrobeStats.setText(stats);
+		}
+	}
+
+	/** Show how quickly the light follows the sound; music mode only */
+	void showPulseStats(CharSequence stats) {
+		if (mPulseStats != null) {
+			mPulseStats.setText(stats);
+		}
+	}
+
+	/** Show what the Morse receiver has read; viewfinder mode only */
+	void showReceivedText(CharSequence text) {
+		if (mMorseReceived != null) {
+			mMorseReceived.setText(text);
+		}
+	}
+
+	@Override
+	public void onResume() {
+		if (!isHidden()) {
+			showLightControl();
+		}
+		super.onResume();
+	}
+
+	/** Called when SearchLight shows or hides this cached fragment on a mode switch */
+	@Override
+	public void onHiddenChanged(boolean hidden) {
+		super.onHiddenChanged(hidden);
+		if (hidden) {
+			stopLightControl();
+		} else {
+			showLightControl();
+		}
+	}
+
+	/**
+	 * Update the light state while hidden, without animating, so the control
+	 * is already right when it's shown again.
+	 */
+	void setLightOn(boolean on) {
+		mOn = on;
+	}
+
+	private void showLightControl() {
+    	// to fade the settings button
+    	ImageButton settingsButton = (ImageButton) getActivity().findViewById(R.id.button_settings);
+    	
+        switch(mCurrentMode) {
+        case R.id.mode_lightswitch:
+        case R.id.mode_dimmer:
+	    	mLightswitch.setChecked(mOn);
         	settingsButton.setAlpha(255);
 	    	break;
         case R.id.mode_blackout:
-        	Button image = (Button) getActivity().findViewById(R.id.button_black);
+        	Button image = (Button) getView().findViewById(R.id.button_black);
         	Animation fadeOut = AnimationUtils.loadAnimation(getActivity(), R.anim.fade_out);
         	image.startAnimation(fadeOut);
         	settingsButton.setAlpha(90);
         	break;
         case R.id.mode_viewfinder:
         case R.id.mode_lightbulb:
-        	mBulb = (ImageButton) getActivity().findViewById(R.id.button_bulb);
-            mDrawable = (TransitionDrawable) mBulb.getDrawable();
-            mDrawable.setCrossFadeEnabled(true);
+        case R.id.mode_strobe:
+        case R.id.mode_morse:
+        case R.id.mode_auto:
+        case R.id.mode_pulse:
             if (mOn) mDrawable.startTransition(0);
         	settingsButton.setAlpha(255);
 
@@ -105,8 +295,6 @@ public class LightControlFragment extends Fragment {
         } else {
         	surface.setLayoutParams(new LayoutParams(1, 1));
         }
-		
-		super.onResume();
 	}
 
 	@Override
@@ -125,6 +313,10 @@ public class LightControlFragment extends Fragment {
         switch(mCurrentMode) {
         case R.id.mode_lightbulb:
         case R.id.mode_viewfinder:
+        case R.id.mode_strobe:
+        case R.id.mode_morse:
+        case R.id.mode_auto:
+        case R.id.mode_pulse:
 			// kill any ongoing transition so it's not still finishing when we resume
 			mDrawable.resetTransition();
 			break;
@@ -132,14 +324,20 @@ public class LightControlFragment extends Fragment {
 	}
 
 	public void toggleLightControl(boolean on) {
+		mOn = on; // so onResume() shows the right state after a warm restart
     	if (on) {
     	    // Update UI
     	    switch (mCurrentMode) {
     	    case R.id.mode_lightbulb:
     	    case R.id.mode_viewfinder:
+    	    case R.id.mode_strobe:
+    	    case R.id.mode_morse:
+    	    case R.id.mode_auto:
+    	    case R.id.mode_pulse:
         	    mDrawable.startTransition(200);
         	    break;
     	    case R.id.mode_lightswitch:
+    	    case R.id.mode_dimmer:
             	mLightswitch.setChecked(true);
         	    break;
     	    }
@@ -148,9 +346,14 @@ public class LightControlFragment extends Fragment {
     	    switch (mCurrentMode) {
     	    case R.id.mode_lightbulb:
     	    case R.id.mode_viewfinder:
+    	    case R.id.mode_strobe:
+    	    case R.id.mode_morse:
+    	    case R.id.mode_auto:
+    	    case R.id.mode_pulse:
     	        mDrawable.reverseTransition(300);
         	    break;
     	    case R.id.mode_lightswitch:
+    	    case R.id.mode_dimmer:
             	mLightswitch.setChecked(false);
         	    break;
         	    
@@ -162,6 +365,10 @@ public class LightControlFragment extends Fragment {
      * implement this interface in order to receive event callbacks. */
     public interface LightControlListener {
         public void onLightControlClick(boolean on);
+        public void onStrobeRateChanged(float hz);
+        public void onLightLevelChanged(float level);
+        public void onMorseTextChanged(CharSequence text);
+        public void onMorseSpeedChanged(float wpm);
     }
     
     // Use this instance of the interface to deliver action events
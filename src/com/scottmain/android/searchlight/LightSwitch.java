@@ -23,14 +23,16 @@ import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.drawable.Drawable;
+import android.support.v4.view.ViewCompat;
 import android.text.Layout;
-import android.text.StaticLayout;
 import android.text.TextPaint;
 import android.text.TextUtils;
 import android.util.AttributeSet;
 import android.view.Gravity;
 import android.view.MotionEvent;
+import android.view.VelocityTracker;
 import android.view.ViewConfiguration;
+import android.view.animation.AnimationUtils;
 import android.widget.CompoundButton;
 
 
@@ -57,6 +59,14 @@ public class LightSwitch extends CompoundButton {
     private static final int TOUCH_MODE_DOWN = 1;
     private static final int TOUCH_MODE_DRAGGING = 2;
 
+    // Critically damped spring that carries the thumb home after a drag
+    private static final float SNAP_STIFFNESS = 400f; // 1/s^2, settles in about 0.3s
+    private static final float SNAP_DAMPING = 2f * (float) Math.sqrt(SNAP_STIFFNESS);
+    private static final float SNAP_MAX_STEP = 1f / 120; // seconds per integration step
+
+    // In level mode, a level below this when the thumb is let go switches off
+    private static final float MIN_LEVEL = 0.05f;
+
     private Drawable mThumbDrawable;
     private Drawable mTrackDrawable;
     private int mThumbTextPadding;
@@ -69,8 +79,24 @@ public class LightSwitch extends CompoundButton {
     private int mTouchSlop;
     private float mTouchX;
     private float mTouchY;
+    private VelocityTracker mVelocityTracker;
+    private int mMinFlingVelocity;
+    private int mMaxFlingVelocity;
+
+    private boolean mSnapping;
+    private float mSnapTarget;
+    private float mSnapVelocity; // px/s, positive is down (towards off)
+    private long mSnapLastTime;
+    private final Runnable mSnapFrame = new Runnable() {
+        public void run() {
+            doSnapFrame();
+        }
+    };
 
     private float mThumbPosition;
+    private boolean mLevelMode;
+    private float mLevel = 1f; // where the thumb sits when on, in level mode
+    private OnLevelChangeListener mOnLevelChangeListener;
     private int mSwitchWidth;
     private int mSwitchHeight;
     private int mThumbHeight; // Does not include padding
@@ -80,10 +106,21 @@ public class LightSwitch extends CompoundButton {
     private int mSwitchRight;
     private int mSwitchBottom;
 
+    // Thumb geometry that doesn't depend on its position, worked out in onLayout()
+    private int mThumbLeft;
+    private int mThumbRight;
+    private int mThumbInset; // from the thumb's top to its drawable's top
+
     private TextPaint mTextPaint;
     private ColorStateList mTextColors;
+    private int mTextColor; // mTextColors resolved for the current drawable state
     private Layout mOnLayout;
     private Layout mOffLayout;
+    // Where to draw each label, relative to the top of the thumb
+    private float mOnTextX;
+    private float mOnTextY;
+    private float mOffTextX;
+    private float mOffTextY;
 
     private static final int[] CHECKED_STATE_SET = {
         android.R.attr.state_checked
@@ -140,11 +177,15 @@ public class LightSwitch extends CompoundButton {
         int appearance = a.getResourceId(R.styleable.LightSwitch_switchTextAppearance, 0);
         if (appearance != 0) {
             setSwitchTextAppearance(context, appearance);
+        } else {
+            mTextColor = mTextPaint.getColor();
         }
         a.recycle();
 
         ViewConfiguration config = ViewConfiguration.get(context);
         mTouchSlop = config.getScaledTouchSlop();
+        mMinFlingVelocity = config.getScaledMinimumFlingVelocity();
+        mMaxFlingVelocity = config.getScaledMaximumFlingVelocity();
 
         // Refresh display with current params
         refreshDrawableState();
@@ -176,12 +217,58 @@ public class LightSwitch extends CompoundButton {
 
         mTextPaint.setTextSize(textSize);
         mTextPaint.setColor(textColor);
+        mTextColor = mTextColors != null
+                ? mTextColors.getColorForState(getDrawableState(), textColor) : textColor;
         requestLayout();
 
         appearance.recycle();
     }
 
 
+    /**
+     * Interface definition for a callback to be invoked while the thumb is
+     * dragged in level mode.
+     */
+    public interface OnLevelChangeListener {
+        /**
+         * @param level from 0 at the bottom of the track to 1 at the top
+         */
+        void onLevelChanged(LightSwitch view, float level);
+    }
+
+    /**
+     * In level mode the thumb stays wherever it's let go, and its position is a
+     * continuous level (a dimmer) instead of snapping to on or off. Letting it go
+     * near the bottom still switches off.
+     */
+    public void setLevelMode(boolean levelMode) {
+        mLevelMode = levelMode;
+        setChecked(isChecked());
+    }
+
+    public void setOnLevelChangeListener(OnLevelChangeListener listener) {
+        mOnLevelChangeListener = listener;
+    }
+
+    /** The level the switch is at when it's on, from 0 to 1 */
+    public float getLevel() {
+        return mLevel;
+    }
+
+    public void setLevel(float level) {
+        mLevel = Math.max(MIN_LEVEL, Math.min(level, 1f));
+        if (!mSnapping && mTouchMode != TOUCH_MODE_DRAGGING) {
+            setThumbPosition(isChecked());
+            invalidate();
+        }
+    }
+
+    /** The level for the thumb's current position */
+    private float getPositionLevel() {
+        final int range = getThumbScrollRange();
+        return range > 0 ? 1f - mThumbPosition / range : mLevel;
+    }
+
     @Override
     public boolean performClick() {
         /* When clicked, DO NOT toggle the state */
@@ -208,9 +295,17 @@ public class LightSwitch extends CompoundButton {
         switch (action) {
             case MotionEvent.ACTION_DOWN: {
                 if (isEnabled() && hitThumb(x, y)) {
+                    // Catch the thumb where it is if it's still settling
+                    mSnapping = false;
                     mTouchMode = TOUCH_MODE_DOWN;
                     mTouchX = x;
                     mTouchY = y;
+                    if (mVelocityTracker == null) {
+                        mVelocityTracker = VelocityTracker.obtain();
+                    } else {
+                        mVelocityTracker.clear();
+                    }
+                    mVelocityTracker.addMovement(ev);
                 } else {
                 	return true; // If it wasn't a hit on the thumb, return true
                 	             // so the button does not go into "pressed" state
@@ -220,6 +315,9 @@ public class LightSwitch extends CompoundButton {
             }
 
             case MotionEvent.ACTION_MOVE: {
+                if (mTouchMode != TOUCH_MODE_IDLE) {
+                    mVelocityTracker.addMovement(ev);
+                }
                 switch (mTouchMode) {
                     case TOUCH_MODE_IDLE:
                         // Didn't target the thumb, treat normally.
@@ -238,13 +336,22 @@ public class LightSwitch extends CompoundButton {
                     }
 
                     case TOUCH_MODE_DRAGGING: {
-                        final float dy = y - mTouchY;
-                        float newPos = Math.max(0,
-                                Math.min(mThumbPosition + dy, getThumbScrollRange()));
-                        if (newPos != mThumbPosition) {
-                            mThumbPosition = newPos;
-                            mTouchY = y;
-                            invalidate();
+                        // The event carries every sample since the last frame; apply
+                        // them all, then redraw once over the span the thumb covered
+                        final float oldPos = mThumbPosition;
+                        float minPos = oldPos;
+                        float maxPos = oldPos;
+                        final int history = ev.getHistorySize();
+                        for (int i = 0; i <= history; i++) {
+                            dragTo(i < history ? ev.getHistoricalY(i) : y);
+                            minPos = Math.min(minPos, mThumbPosition);
+                            maxPos = Math.max(maxPos, mThumbPosition);
+                        }
+                        if (minPos != maxPos) {
+                            invalidateThumb(minPos, maxPos);
+                            if (mLevelMode && mOnLevelChangeListener != null) {
+                                mOnLevelChangeListener.onLevelChanged(this, getPositionLevel());
+                            }
                         }
                         return true;
                     }
@@ -255,6 +362,7 @@ public class LightSwitch extends CompoundButton {
             case MotionEvent.ACTION_UP:
             case MotionEvent.ACTION_CANCEL: {
                 if (mTouchMode == TOUCH_MODE_DRAGGING) {
+                    mVelocityTracker.addMovement(ev);
                     stopDrag(ev);
                     return true;
                 }
@@ -266,6 +374,26 @@ public class LightSwitch extends CompoundButton {
         return super.onTouchEvent(ev);
     }
 
+    private void dragTo(float y) {
+        final float dy = y - mTouchY;
+        float newPos = Math.max(0,
+                Math.min(mThumbPosition + dy, getThumbScrollRange()));
+        if (newPos != mThumbPosition) {
+            mThumbPosition = newPos;
+            mTouchY = y;
+        }
+    }
+
+    /**
+     * Invalidate only the part of the track the thumb moved through, rather
+     * than the whole view.
+     */
+    private void invalidateThumb(float fromPos, float toPos) {
+        final int top = mSwitchTop + (int) Math.min(fromPos, toPos);
+        final int bottom = mSwitchTop + (int) Math.ceil(Math.max(fromPos, toPos)) + mThumbHeight + 1;
+        invalidate(mSwitchLeft, top, mSwitchRight, bottom);
+    }
+
     private void cancelSuperTouch(MotionEvent ev) {
         MotionEvent cancel = MotionEvent.obtain(ev);
         cancel.setAction(MotionEvent.ACTION_CANCEL);
@@ -285,15 +413,89 @@ public class LightSwitch extends CompoundButton {
 
         cancelSuperTouch(ev);
 
+        mVelocityTracker.computeCurrentVelocity(1000, mMaxFlingVelocity);
+        final float velocity = mVelocityTracker.getYVelocity();
+
+        boolean checked = isChecked();
+        if (mLevelMode) {
+            // The thumb stays where it was let go, unless that's off
+            if (commitChange) {
+                final float level = getPositionLevel();
+                checked = level >= MIN_LEVEL;
+                if (checked) mLevel = level;
+            }
+            if (checked && commitChange) {
+                mSnapping = false;
+            } else {
+                startSnap(checked, velocity);
+            }
+            super.setChecked(checked);
+            return;
+        }
         if (commitChange) {
-        	setChecked(isThumbPositionCheckedState());
-        } else {
-        	setChecked(isChecked());
+            // A fling decides by direction; otherwise go by where the thumb was let go
+            if (Math.abs(velocity) > mMinFlingVelocity) {
+                checked = velocity < 0; // up is on
+            } else {
+                checked = isThumbPositionCheckedState();
+            }
+        }
+
+        // Change state (and so the light) now, then let the thumb catch up
+        startSnap(checked, velocity);
+        super.setChecked(checked);
+    }
+
+    private void startSnap(boolean checked, float velocity) {
+        mSnapTarget = getThumbPosition(checked);
+        mSnapVelocity = velocity;
+        mSnapLastTime = AnimationUtils.currentAnimationTimeMillis();
+        if (!mSnapping) {
+            mSnapping = true;
+            ViewCompat.postOnAnimation(this, mSnapFrame);
+        }
+    }
+
+    /** One display frame of the snap; allocates nothing */
+    private void doSnapFrame() {
+        if (!mSnapping) return;
+
+        final long now = AnimationUtils.currentAnimationTimeMillis();
+        float elapsed = Math.min((now - mSnapLastTime) / 1000f, 0.05f);
+        mSnapLastTime = now;
+
+        final float oldPos = mThumbPosition;
+        float pos = oldPos;
+        float v = mSnapVelocity;
+        while (elapsed > 0) {
+            final float dt = Math.min(elapsed, SNAP_MAX_STEP);
+            v += (SNAP_STIFFNESS * (mSnapTarget - pos) - SNAP_DAMPING * v) * dt;
+            pos += v * dt;
+            elapsed -= dt;
+        }
+        // The track is a hard stop
+        if (pos < 0 || pos > getThumbScrollRange()) {
+            pos = Math.max(0, Math.min(pos, getThumbScrollRange()));
+            v = 0;
+        }
+
+        if (Math.abs(mSnapTarget - pos) < 0.5f && Math.abs(v) < mMinFlingVelocity) {
+            pos = mSnapTarget;
+            mSnapping = false;
+        }
+        mThumbPosition = pos;
+        mSnapVelocity = v;
+        invalidateThumb(oldPos, pos);
+
+        if (mSnapping) {
+            ViewCompat.postOnAnimation(this, mSnapFrame);
         }
     }
 
     private boolean isThumbPositionCheckedState() {
-    	if (isChecked()) {
+    	if (mLevelMode) {
+    		return getPositionLevel() >= MIN_LEVEL;
+    	} else if (isChecked()) {
     		return mThumbPosition <= getThumbScrollRange() * 2/3;
     	} else {
             return mThumbPosition <= getThumbScrollRange() * 1/3;
@@ -301,16 +503,41 @@ public class LightSwitch extends CompoundButton {
     }
 
     private void setThumbPosition(boolean checked) {
-        mThumbPosition = checked ? 0 : getThumbScrollRange();
+        mThumbPosition = getThumbPosition(checked);
+    }
+
+    private float getThumbPosition(boolean checked) {
+        final int range = getThumbScrollRange();
+        if (!checked) return range;
+        return mLevelMode ? (1f - mLevel) * range : 0;
     }
 
     @Override
     public void setChecked(boolean checked) {
+        final boolean changed = checked != isChecked();
         super.setChecked(checked);
+        if (mSnapping && !changed) {
+            // Our own listener echoing the state back; let the thumb finish moving
+            return;
+        }
+        mSnapping = false;
         setThumbPosition(isChecked());
         invalidate();
     }
 
+    @Override
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+        if (mSnapping) {
+            mSnapping = false;
+            setThumbPosition(isChecked());
+        }
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
 
 
     @Override
@@ -336,18 +563,18 @@ public class LightSwitch extends CompoundButton {
         }
     }
 
+    /** Labels are shared with other switches through the process-wide cache */
     private Layout makeLayout(CharSequence text) {
-
-        return new StaticLayout(text, mTextPaint,
-                (int) Math.ceil(Layout.getDesiredWidth(text, mTextPaint)),
-                Layout.Alignment.ALIGN_NORMAL, 1.f, 0, true);
+        return TextLayoutCache.get(text, mTextPaint);
     }
 
     @Override
     protected void onLayout(boolean changed, int left, int top, int right, int bottom) {
         super.onLayout(changed, left, top, right, bottom);
 
-        setThumbPosition(isChecked());
+        if (!mSnapping) {
+            setThumbPosition(isChecked());
+        }
 
         int switchRight;
         int switchLeft;
@@ -379,41 +606,54 @@ public class LightSwitch extends CompoundButton {
         mSwitchTop = switchTop;
         mSwitchBottom = switchBottom;
         mSwitchRight = switchRight;
+
+        // Everything below stays fixed while the thumb moves, so onDraw() only
+        // has to offset it by the thumb position
+        mTrackDrawable.setBounds(mSwitchLeft, mSwitchTop, mSwitchRight, mSwitchBottom);
+        mThumbLeft = mSwitchLeft + mSwitchPadding;
+        mThumbRight = mSwitchRight - mSwitchPadding;
+        mThumbInset = mSwitchPadding;
+
+        final int thumbCenterX = (mSwitchLeft + mSwitchRight) / 2;
+        final int thumbCenterY = mThumbHeight / 2;
+        mOnTextX = thumbCenterX - mOnLayout.getWidth() / 2;
+        mOnTextY = thumbCenterY - mOnLayout.getHeight() / 2;
+        mOffTextX = thumbCenterX - mOffLayout.getWidth() / 2;
+        mOffTextY = thumbCenterY - mOffLayout.getHeight() / 2;
     }
 
+    /**
+     * Draws from geometry and colors worked out ahead of time in onLayout() and
+     * drawableStateChanged(), so a drag frame does no allocation and no
+     * state or text measurement.
+     */
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        mTrackDrawable.setBounds(mSwitchLeft, mSwitchTop, mSwitchRight, mSwitchBottom);
         mTrackDrawable.draw(canvas);
 
-        canvas.save();
-
-        canvas.clipRect(mSwitchLeft, mSwitchTop, mSwitchRight, mSwitchBottom);
+        // The thumb position is clamped to the track, so no clip is needed
+        final int thumbTop = mSwitchTop + (int) (mThumbPosition + 0.5f);
 
-        int thumbTop = mSwitchTop + (int) (mThumbPosition + 0.5f);
-
-        mThumbDrawable.setBounds(mSwitchLeft + mSwitchPadding, thumbTop + mSwitchPadding,
-        		mSwitchRight - mSwitchPadding, (thumbTop + mThumbHeight) - mSwitchPadding);
+        mThumbDrawable.setBounds(mThumbLeft, thumbTop + mThumbInset,
+        		mThumbRight, (thumbTop + mThumbHeight) - mThumbInset);
         mThumbDrawable.draw(canvas);
 
-        // mTextColors should not be null, but just in case
-        if (mTextColors != null) {
-            mTextPaint.setColor(mTextColors.getColorForState(getDrawableState(),
-                    mTextColors.getDefaultColor()));
-        }
-        mTextPaint.drawableState = getDrawableState();
-
-        // Draw the button text
-        Layout switchText = isThumbPositionCheckedState() ? mOnLayout : mOffLayout;
+        // Draw the button text. The layout is shared, so it draws with its own
+        // paint; give that our color for this frame
+        final boolean checked = isThumbPositionCheckedState();
+        Layout switchText = checked ? mOnLayout : mOffLayout;
         if (switchText != null) {
-            canvas.translate((mSwitchLeft + mSwitchRight) / 2 - switchText.getWidth() / 2,
-                    (thumbTop + (thumbTop + mThumbHeight)) / 2 - switchText.getHeight() / 2);
+            final TextPaint textPaint = switchText.getPaint();
+            textPaint.setColor(mTextColor);
+            textPaint.drawableState = getDrawableState();
+            final int saveCount = canvas.save();
+            canvas.translate(checked ? mOnTextX : mOffTextX,
+                    thumbTop + (checked ? mOnTextY : mOffTextY));
             switchText.draw(canvas);
+            canvas.restoreToCount(saveCount);
         }
-
-        canvas.restore();
     }
 
     @Override
@@ -461,6 +701,13 @@ public class LightSwitch extends CompoundButton {
         if (mThumbDrawable != null) mThumbDrawable.setState(myDrawableState);
         if (mTrackDrawable != null) mTrackDrawable.setState(myDrawableState);
 
+        // Resolve the label color here, once per state change, not on every frame.
+        // mTextColors should not be null, but just in case
+        if (mTextColors != null) {
+            mTextColor = mTextColors.getColorForState(myDrawableState,
+                    mTextColors.getDefaultColor());
+        }
+
         invalidate();
     }
 
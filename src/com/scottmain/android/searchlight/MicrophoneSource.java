@@ -0,0 +1,104 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.Semaphore;
+
+import android.annotation.TargetApi;
+import android.media.AudioFormat;
+import android.media.AudioRecord;
+import android.media.AudioTimestamp;
+import android.media.MediaRecorder;
+import android.os.Build;
+import android.util.Log;
+
+/**
+ * The microphone, through AudioRecord. It runs at a low sample rate, because
+ * only loudness matters, and with the smallest buffer the device allows, so
+ * samples reach the reader soon after they're captured.
+ *
+ * <p>Only one source records at a time. A pulse that was just stopped may
+ * still be giving the microphone back, so the next one's start() waits for it.</p>
+ */
+class MicrophoneSource implements AudioSource {
+	private static final String TAG = "MicrophoneSource";
+	static final int SAMPLE_RATE = 16000; // every device supports 16 kHz capture
+	private static final Semaphore sMicrophone = new Semaphore(1); // held from start() to stop()
+
+	private AudioRecord mRecord;
+	private AudioTimestamp mTimestamp; // reused; API 24+
+
+	public int getSampleRate() {
+		return SAMPLE_RATE;
+	}
+
+	public boolean start() {
+		try {
+			sMicrophone.acquire();
+		} catch (InterruptedException e) {
+			// Stopped before it started
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		final int minBuffer = AudioRecord.getMinBufferSize(SAMPLE_RATE,
+				AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT);
+		if (minBuffer <= 0) {
+			Log.e(TAG, "No 16 kHz mono capture");
+			sMicrophone.release();
+			return false;
+		}
+		try {
+			mRecord = new AudioRecord(MediaRecorder.AudioSource.MIC, SAMPLE_RATE,
+					AudioFormat.CHANNEL_IN_MONO, AudioFormat.ENCODING_PCM_16BIT, minBuffer);
+			if (mRecord.getState() != AudioRecord.STATE_INITIALIZED) {
+				Log.e(TAG, "Could not open the microphone");
+				release();
+				return false;
+			}
+			mRecord.startRecording();
+			return true;
+		} catch (RuntimeException e) {
+			Log.e(TAG, "Could not record " + e);
+			release();
+			return false;
+		}
+	}
+
+	public int read(short[] buffer, int offset, int length) {
+		return mRecord.read(buffer, offset, length);
+	}
+
+	public long getCaptureNanos(long frame) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.N) return -1;
+		return getCaptureNanosN(frame);
+	}
+
+	@TargetApi(Build.VERSION_CODES.N)
+	private long getCaptureNanosN(long frame) {
+		if (mTimestamp == null) {
+			mTimestamp = new AudioTimestamp();
+		}
+		if (mRecord.getTimestamp(mTimestamp, AudioTimestamp.TIMEBASE_MONOTONIC) != AudioRecord.SUCCESS) {
+			return -1;
+		}
+		// The timestamp pins one frame to a time; count from it to ours
+		return mTimestamp.nanoTime + (frame - mTimestamp.framePosition) * 1000000000L / SAMPLE_RATE;
+	}
+
+	public void stop() {
+		if (mRecord == null) return;
+		try {
+			mRecord.stop();
+		} catch (IllegalStateException e) {
+			// Never started; releasing is all that's left
+		}
+		release();
+	}
+
+	/** After start() took the microphone; the AudioRecord may not have been made */
+	private void release() {
+		if (mRecord != null) {
+			mRecord.release();
+			mRecord = null;
+		}
+		sMicrophone.release();
+	}
+}
@@ -43,6 +43,21 @@ public class ModeDialogFragment extends DialogFragment {
 		case R.id.mode_blackout:
 			currentMode = 3;
 			break;
+		case R.id.mode_strobe:
+			currentMode = 4;
+			break;
+		case R.id.mode_morse:
+			currentMode = 5;
+			break;
+		case R.id.mode_dimmer:
+			currentMode = 6;
+			break;
+		case R.id.mode_auto:
+			currentMode = 7;
+			break;
+		case R.id.mode_pulse:
+			currentMode = 8;
+			break;
 		}
     	
         // Use the Builder class for convenient dialog construction
@@ -68,6 +83,21 @@ public class ModeDialogFragment extends DialogFragment {
 						case 3:
 							which = R.id.mode_blackout;
 							break;
+						case 4:
+							which = R.id.mode_strobe;
+							break;
+						case 5:
+							which = R.id.mode_morse;
+							break;
+						case 6:
+							which = R.id.mode_dimmer;
+							break;
+						case 7:
+							which = R.id.mode_auto;
+							break;
+						case 8:
+							which = R.id.mode_pulse;
+							break;
 						}
 						dismiss();
 						
@@ -0,0 +1,17 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Source of monotonic time for anything that measures or schedules the light.
+ * Pass a fake one in to control time from a JVM test.
+ */
+interface MonotonicClock {
+
+	/** Nanoseconds from an arbitrary fixed origin; only differences are meaningful. */
+	public long nanoTime();
+
+	public static final MonotonicClock SYSTEM = new MonotonicClock() {
+		public long nanoTime() {
+			return System.nanoTime();
+		}
+	};
+}
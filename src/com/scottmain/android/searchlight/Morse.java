@@ -0,0 +1,143 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * International Morse code, compiled to a timing table the torch can play
+ * without looking anything up.
+ *
+ * <p>A compiled table is an int array of durations in units (one dot long),
+ * alternating lit and dark and starting lit: a dot is 1 unit, a dash 3, the
+ * gap inside a letter 1, between letters 3 and between words 7. Every table
+ * ends with a word gap, so it can be played on a loop.</p>
+ */
+final class Morse {
+	static final int DOT = 1;
+	static final int DASH = 3;
+	static final int ELEMENT_GAP = 1;
+	static final int LETTER_GAP = 3;
+	static final int WORD_GAP = 7;
+
+	/** SOS as the distress prosign: ...---... with no letter gaps */
+	static final String SOS_PROSIGN = "...---...";
+
+	/**
+	 * A letter's elements packed into an int for decoding: a leading 1 bit,
+	 * then a bit per element, 1 for a dash, first element highest.
+	 */
+	static final int PACKED_EMPTY = 1;
+	static final int MAX_ELEMENTS = 6;
+
+	private static final String[] LETTERS = {
+		".-", "-...", "-.-.", "-..", ".", "..-.", "--.", "....", "..", ".---", // A-J
+		"-.-", ".-..", "--", "-.", "---", ".--.", "--.-", ".-.", "...", "-", // K-T
+		"..-", "...-", ".--", "-..-", "-.--", "--.." // U-Z
+	};
+
+	private static final String[] DIGITS = {
+		"-----", ".----", "..---", "...--", "....-", // 0-4
+		".....", "-....", "--...", "---..", "----." // 5-9
+	};
+
+	// Every character codeFor() knows, for building the decoding table
+	private static final String CODED_CHARS =
+			"ABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789.,?'!/()&:=+-\"@";
+	private static final char[] DECODE = new char[PACKED_EMPTY << (MAX_ELEMENTS + 1)];
+
+	static {
+		for (int i = 0; i < CODED_CHARS.length(); i++) {
+			final char c = CODED_CHARS.charAt(i);
+			final String code = codeFor(c);
+			int packed = PACKED_EMPTY;
+			for (int j = 0; j < code.length(); j++) {
+				packed = pack(packed, code.charAt(j) == '-');
+			}
+			DECODE[packed] = c;
+		}
+	}
+
+	private Morse() {}
+
+	/** The code for one character, or null if Morse has none */
+	static String codeFor(char c) {
+		c = Character.toUpperCase(c);
+		if (c >= 'A' && c <= 'Z') return LETTERS[c - 'A'];
+		if (c >= '0' && c <= '9') return DIGITS[c - '0'];
+		switch (c) {
+		case '.': return ".-.-.-";
+		case ',': return "--..--";
+		case '?': return "..--..";
+		case '\'': return ".----.";
+		case '!': return "-.-.--";
+		case '/': return "-..-.";
+		case '(': return "-.--.";
+		case ')': return "-.--.-";
+		case '&': return ".-...";
+		case ':': return "---...";
+		case '=': return "-...-";
+		case '+': return ".-.-.";
+		case '-': return "-....-";
+		case '"': return ".-..-.";
+		case '@': return ".--.-.";
+		default: return null;
+		}
+	}
+
+	/** Add an element to a packed letter that has fewer than {@link #MAX_ELEMENTS} */
+	static int pack(int packed, boolean dash) {
+		return packed << 1 | (dash ? 1 : 0);
+	}
+
+	/** The character for a packed letter, or 0 if Morse has none */
+	static char decode(int packed) {
+		return packed > 0 && packed < DECODE.length ? DECODE[packed] : 0;
+	}
+
+	/**
+	 * Compile text to a timing table. Whitespace separates words; characters
+	 * Morse has no code for are left out.
+	 *
+	 * @return the table, empty if there was nothing to send
+	 */
+	static int[] compile(CharSequence text) {
+		// Each element takes two entries, and no code is longer than 6 elements
+		int[] table = new int[text.length() * 12];
+		int size = 0;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (Character.isWhitespace(c)) {
+				if (size > 0) table[size - 1] = WORD_GAP;
+				continue;
+			}
+			String code = codeFor(c);
+			if (code == null) continue;
+			size = appendCode(table, size, code);
+			table[size - 1] = LETTER_GAP;
+		}
+		return finish(table, size);
+	}
+
+	/** Compile a single run of dots and dashes, such as a prosign, to a timing table */
+	static int[] compileCode(String code) {
+		int[] table = new int[code.length() * 2];
+		return finish(table, appendCode(table, 0, code));
+	}
+
+	private static int appendCode(int[] table, int size, String code) {
+		for (int i = 0; i < code.length(); i++) {
+			table[size++] = code.charAt(i) == '-' ? DASH : DOT;
+			table[size++] = ELEMENT_GAP;
+		}
+		return size;
+	}
+
+	private static int[] finish(int[] table, int size) {
+		if (size > 0) table[size - 1] = WORD_GAP;
+		int[] result = new int[size];
+		System.arraycopy(table, 0, result, 0, size);
+		return result;
+	}
+
+	/** Length of one unit at a speed in words per minute, by the standard word PARIS */
+	static long unitNanos(float wpm) {
+		return (long) (1200000000L / wpm);
+	}
+}
@@ -0,0 +1,62 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Plays a compiled {@link Morse} timing table on the torch, on a loop.
+ *
+ * <p>The speed can change at any time and applies from the next segment,
+ * because the table is in units rather than time. A new table takes over at
+ * the end of the current repetition, so a message is never cut off midway.</p>
+ */
+class MorsePlayer extends TorchSequencer {
+	static final float MIN_WPM = 5f;
+	static final float MAX_WPM = 30f;
+
+	private volatile int[] mPending;
+	private volatile long mUnitNanos = Morse.unitNanos(12);
+
+	// Sequencer thread only
+	private int[] mTable;
+	private int mIndex;
+
+	MorsePlayer(TorchBackend torch, MonotonicClock clock) {
+		super(torch, clock, "MorseThread");
+		mPending = Morse.compileCode(Morse.SOS_PROSIGN);
+	}
+
+	/**
+	 * Play a table from {@link Morse#compile(CharSequence)} from the next
+	 * repetition on. An empty table (blank text, or only characters Morse has no
+	 * code for) plays SOS, rather than ending the sequence with the light off.
+	 */
+	void setTable(int[] table) {
+		mPending = table.length > 0 ? table : Morse.compileCode(Morse.SOS_PROSIGN);
+	}
+
+	void setWordsPerMinute(float wpm) {
+		mUnitNanos = Morse.unitNanos(Math.max(MIN_WPM, Math.min(wpm, MAX_WPM)));
+	}
+
+	@Override
+	void rewind() {
+		mTable = mPending;
+		mIndex = -1;
+	}
+
+	@Override
+	boolean advance() {
+		if (++mIndex < mTable.length) return true;
+		rewind();
+		return ++mIndex < mTable.length;
+	}
+
+	@Override
+	boolean isSegmentLit() {
+		// Tables alternate lit and dark, starting lit
+		return (mIndex & 1) == 0;
+	}
+
+	@Override
+	long getSegmentNanos() {
+		return mTable[mIndex] * mUnitNanos;
+	}
+}
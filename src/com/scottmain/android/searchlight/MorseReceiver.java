@@ -0,0 +1,206 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Reads Morse from a blinking light in the middle of the preview, a frame at
+ * a time, and keeps the latest text it has decoded.
+ *
+ * <p>Each frame is reduced to one number, the mean luminance of a small
+ * square in the centre. The receiver tracks how bright the light gets when
+ * it's on and how dark when it's off. Both envelopes slowly close in, so the
+ * threshold between them follows changes in exposure. Once a crossing
+ * becomes a lit or dark interval, the frame is gone. Only a few numbers and
+ * the letter being read are kept.</p>
+ *
+ * <p>The sender's speed is learned from their marks: a running estimate of one
+ * unit, taken from each dot and a third of each dash. It resets if a mark
+ * comes in well under that estimate, as when the first mark seen was a dash.
+ * Marks of 2 units or more are dashes. A gap of 2 units ends a letter, and
+ * one of 5 units ends a word. Both are decided as soon as the gap is long
+ * enough, so text appears without waiting for the next mark. Timing comes
+ * from frame arrival, so a unit has to span at least 2 frames. At 30
+ * frames a second that's up to about 18 words per minute.</p>
+ *
+ * <p>Pure Java. Nothing is allocated per frame, only a String when the text
+ * changes.</p>
+ */
+class MorseReceiver implements FramePipeline.Analyzer {
+	static final int REGION_DIVISOR = 8; // the square's side is the frame's shorter side / 8
+	private static final int REGION_SAMPLES = 16; // per side, at most
+	static final int MIN_CONTRAST = 24; // of 255, between on and off, to count as a signal
+	private static final int ENVELOPE_DECAY = 64; // each frame, 1/64 of the way to the current level
+	private static final int UNIT_WEIGHT = 4; // 1/4 of each new mark goes into the unit estimate
+	static final int TEXT_CAPACITY = 48; // characters kept; older ones scroll off
+
+	/** Hears each change in the decoded text. Called on the frame worker thread. */
+	interface Listener {
+		public void onMorseText(String text);
+	}
+
+	private final Listener mListener;
+	private volatile boolean mResetRequested;
+
+	// Frame worker thread only
+	private int mHigh = -1; // envelope of the lit level; -1 before the first frame
+	private int mLow;
+	private boolean mLit;
+	private long mEdgeNanos = -1; // when mLit last changed; -1 for never
+	private long mUnitNanos; // 0 until the first mark
+	private int mLetter = Morse.PACKED_EMPTY;
+	private int mElements;
+	private boolean mLetterEnded; // the current gap has already ended a letter
+	private boolean mWordEnded; // ... and a word
+
+	// Guarded by this
+	private final char[] mText = new char[TEXT_CAPACITY];
+	private int mTextLength;
+
+	MorseReceiver(Listener listener) {
+		mListener = listener;
+	}
+
+	/** Any thread. Forget the text and the sender, to start listening afresh. */
+	void reset() {
+		synchronized (this) {
+			mTextLength = 0;
+		}
+		mResetRequested = true;
+	}
+
+	/** The decoded text, most recent last */
+	synchronized String getText() {
+		return new String(mText, 0, mTextLength);
+	}
+
+	public void onFrame(byte[] data, int width, int height, int format, long arrivalNanos) {
+		onLevel(regionLuma(data, width, height), arrivalNanos);
+	}
+
+	/** Frame worker thread only. Take one frame's brightness, 0 to 255, into account. */
+	void onLevel(int luma, long nanos) {
+		if (mResetRequested) {
+			mResetRequested = false;
+			mHigh = -1;
+			mEdgeNanos = -1;
+			mUnitNanos = 0;
+			clearLetter();
+		}
+		if (mHigh < 0) {
+			mHigh = luma;
+			mLow = luma;
+			mLit = false;
+		}
+		mHigh = luma > mHigh ? luma : mHigh - (mHigh - luma) / ENVELOPE_DECAY;
+		mLow = luma < mLow ? luma : mLow + (luma - mLow) / ENVELOPE_DECAY;
+
+		boolean lit = mLit;
+		final int contrast = mHigh - mLow;
+		if (contrast >= MIN_CONTRAST) {
+			// A band around the middle that has to be crossed, so noise doesn't chatter
+			final int middle = (mHigh + mLow) / 2;
+			final int band = contrast / 8;
+			if (luma > middle + band) lit = true;
+			else if (luma < middle - band) lit = false;
+		} else {
+			// A steady light, or none at all
+			lit = false;
+		}
+
+		if (lit != mLit) {
+			if (mEdgeNanos >= 0) {
+				final long length = nanos - mEdgeNanos;
+				if (lit) {
+					endGap(length);
+				} else {
+					endMark(length);
+				}
+			}
+			mLit = lit;
+			mEdgeNanos = nanos;
+		} else if (!lit && mEdgeNanos >= 0) {
+			// Still dark; end the letter or word as soon as the gap says so
+			judgeGap(nanos - mEdgeNanos);
+		}
+	}
+
+	private void endMark(long length) {
+		if (mUnitNanos == 0 || length * 2 < mUnitNanos) {
+			// The first mark, or one much shorter than any before: start over from it
+			mUnitNanos = length;
+		}
+		if (length > Morse.WORD_GAP * mUnitNanos) {
+			// Too long for a dash; a light switched on rather than a signal
+			clearLetter();
+			return;
+		}
+		final boolean dash = length >= 2 * mUnitNanos;
+		final long unit = dash ? length / Morse.DASH : length;
+		mUnitNanos += (unit - mUnitNanos) / UNIT_WEIGHT;
+
+		if (mElements < Morse.MAX_ELEMENTS) {
+			mLetter = Morse.pack(mLetter, dash);
+		} else {
+			mLetter = 0; // longer than any letter; decodes to nothing
+		}
+		mElements++;
+	}
+
+	private void endGap(long length) {
+		judgeGap(length);
+		mLetterEnded = false;
+		mWordEnded = false;
+	}
+
+	private void judgeGap(long length) {
+		if (mUnitNanos == 0) return;
+		if (!mLetterEnded && length >= 2 * mUnitNanos) {
+			mLetterEnded = true;
+			if (mElements > 0) {
+				final char c = Morse.decode(mLetter);
+				append(c != 0 ? c : '?');
+			}
+			clearLetter();
+		}
+		if (!mWordEnded && length >= 5 * mUnitNanos) {
+			mWordEnded = true;
+			append(' ');
+		}
+	}
+
+	private void clearLetter() {
+		mLetter = Morse.PACKED_EMPTY;
+		mElements = 0;
+	}
+
+	private void append(char c) {
+		String text;
+		synchronized (this) {
+			if (c == ' ' && (mTextLength == 0 || mText[mTextLength - 1] == ' ')) return;
+			if (mTextLength == TEXT_CAPACITY) {
+				System.arraycopy(mText, 1, mText, 0, TEXT_CAPACITY - 1);
+				mTextLength--;
+			}
+			mText[mTextLength++] = c;
+			text = new String(mText, 0, mTextLength);
+		}
+		mListener.onMorseText(text);
+	}
+
+	/** Mean of up to {@link #REGION_SAMPLES} squared samples from a square in the middle of the Y plane */
+	static int regionLuma(byte[] data, int width, int height) {
+		final int side = Math.max(1, Math.min(width, height) / REGION_DIVISOR);
+		final int left = (width - side) / 2;
+		final int top = (height - side) / 2;
+		// Rounded up, so a side that isn't a multiple still gets no more than the samples
+		final int step = (side + REGION_SAMPLES - 1) / REGION_SAMPLES;
+		int sum = 0;
+		int count = 0;
+		for (int y = top; y < top + side; y += step) {
+			final int row = y * width;
+			for (int x = left; x < left + side; x += step) {
+				sum += data[row + x] & 0xff;
+				count++;
+			}
+		}
+		return sum / count;
+	}
+}
@@ -0,0 +1,74 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Decides, sample by sample, whether the sound is in a loud burst (a beat, a
+ * syllable) or between them.
+ *
+ * <p>An envelope follower rises within about a millisecond of a sound and
+ * falls away over tens of milliseconds. A much slower average of the envelope
+ * is the floor, the loudness the bursts stand out from. A burst starts when
+ * the envelope reaches {@link #ON_RATIO} times the floor and ends when it
+ * drops below {@link #OFF_RATIO} times it. The gap between the two keeps it
+ * from chattering.</p>
+ *
+ * <p>Pure Java, and nothing is allocated once it's made.</p>
+ */
+class OnsetDetector {
+	static final float ON_RATIO = 2f;
+	static final float OFF_RATIO = 1.3f;
+	static final float MIN_LEVEL = 300f; // of 32768; quieter than this is silence
+	private static final float ATTACK_SECONDS = 0.001f;
+	private static final float RELEASE_SECONDS = 0.06f;
+	private static final float FLOOR_SECONDS = 1.5f;
+
+	private final float mAttack;
+	private final float mRelease;
+	private final float mFloorRate;
+	private float mEnvelope;
+	private float mFloor = MIN_LEVEL;
+	private boolean mOn;
+
+	OnsetDetector(int sampleRate) {
+		mAttack = coefficient(ATTACK_SECONDS, sampleRate);
+		mRelease = coefficient(RELEASE_SECONDS, sampleRate);
+		mFloorRate = coefficient(FLOOR_SECONDS, sampleRate);
+	}
+
+	/** How much of the gap a one-pole filter closes each sample, for a time constant */
+	private static float coefficient(float seconds, int sampleRate) {
+		return (float) (1 - Math.exp(-1.0 / (seconds * sampleRate)));
+	}
+
+	/** Whether a burst is going on, as of the last sample processed */
+	boolean isOn() {
+		return mOn;
+	}
+
+	/**
+	 * Take in a block of samples.
+	 * @return the position in the block where the state last changed, or -1 if it didn't
+	 */
+	int process(short[] samples, int offset, int length) {
+		int changed = -1;
+		float envelope = mEnvelope;
+		float floor = mFloor;
+		boolean on = mOn;
+		for (int i = offset; i < offset + length; i++) {
+			final int level = Math.abs(samples[i]);
+			envelope += (level > envelope ? mAttack : mRelease) * (level - envelope);
+			floor += mFloorRate * (envelope - floor);
+			if (floor < MIN_LEVEL) floor = MIN_LEVEL;
+			final boolean now = on
+					? envelope >= floor * OFF_RATIO
+					: envelope >= floor * ON_RATIO;
+			if (now != on) {
+				on = now;
+				changed = i - offset;
+			}
+		}
+		mEnvelope = envelope;
+		mFloor = floor;
+		mOn = on;
+		return changed;
+	}
+}
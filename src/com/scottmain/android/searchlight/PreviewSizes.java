@@ -0,0 +1,57 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Preview size selection over plain int arrays, so it runs (and can be timed)
+ * on any JVM without a Camera. Sizes are given as parallel width and height
+ * arrays in the order the camera lists them; results are indexes into them.
+ * Nothing is allocated.
+ */
+final class PreviewSizes {
+	private static final double ASPECT_TOLERANCE = 0.05;
+
+	private PreviewSizes() {}
+
+	/**
+	 * The size closest in height to the target among those within 5% of its
+	 * aspect ratio or, if none are, among all of them. Ties go to the earlier
+	 * size. Both passes of the original ApiDemos version are done in one.
+	 *
+	 * @return the chosen index, or -1 if count is 0
+	 */
+	static int pickOptimal(int[] widths, int[] heights, int count, int targetWidth, int targetHeight) {
+		final double targetRatio = (double) targetWidth / targetHeight;
+		int matched = -1;
+		int matchedDiff = Integer.MAX_VALUE;
+		int any = -1;
+		int anyDiff = Integer.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			final int diff = Math.abs(heights[i] - targetHeight);
+			if (diff < anyDiff) {
+				any = i;
+				anyDiff = diff;
+			}
+			if (diff < matchedDiff) {
+				final double ratio = (double) widths[i] / heights[i];
+				if (Math.abs(ratio - targetRatio) <= ASPECT_TOLERANCE) {
+					matched = i;
+					matchedDiff = diff;
+				}
+			}
+		}
+		return matched >= 0 ? matched : any;
+	}
+
+	/** @return the index of the size with the fewest pixels, or -1 if count is 0 */
+	static int pickSmallest(int[] widths, int[] heights, int count) {
+		int smallest = -1;
+		long smallestArea = Long.MAX_VALUE;
+		for (int i = 0; i < count; i++) {
+			final long area = (long) widths[i] * heights[i];
+			if (area < smallestArea) {
+				smallest = i;
+				smallestArea = area;
+			}
+		}
+		return smallest;
+	}
+}
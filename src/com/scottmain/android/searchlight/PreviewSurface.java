@@ -18,31 +18,80 @@ package com.scottmain.android.searchlight;
 
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import android.app.Activity;
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.Parameters;
 import android.hardware.Camera.Size;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.AttributeSet;
 import android.util.Log;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-class PreviewSurface extends SurfaceView implements SurfaceHolder.Callback {
+class PreviewSurface extends SurfaceView implements SurfaceHolder.Callback, TorchBackend {
 	private final static String TAG = "PreviewSurface";
-    SurfaceHolder mHolder;
+    volatile SurfaceHolder mHolder;
     Context mContext;
     Camera mCamera;
-    int mHeight;
-    int mWidth;
-    Camera.Parameters mParameters;
+    CameraParameterCache mParameters = new CameraParameterCache();
     Callback mCallback;
     Activity mActivity;
-    boolean hasCamera = false;
-    boolean hasSurface = false;
-    boolean isViewfinder = false;
+    volatile boolean isViewfinder = false;
+    volatile boolean mExposureLocked = false;
+    SurfaceTexture mDummyTarget; // where a preview nobody sees goes, on API 11+; camera thread only
+    CameraCapabilities mCapabilities; // camera thread only
+    
+    // Every Camera call runs on the camera thread so the UI thread never waits
+    // on the camera HAL; results come back to the UI thread through mCallback.
+    Handler mCameraHandler;
+    Handler mUiHandler;
+    
+    // Which camera calls to make, and when; camera thread only
+    TorchStateMachine mMachine;
+    
+    // Handoff for applyTorch(): the timing thread parks while the camera thread
+    // makes the change, and nothing is allocated per call. A stopped timing
+    // thread and its replacement can both be switching, so they take turns.
+    private final Object mApplyTurn = new Object();
+    private volatile boolean mApplyOn;
+    private volatile boolean mApplyResult;
+    private volatile boolean mApplyDone;
+    private volatile boolean mApplyCancelled; // the waiter was stopped
+    private volatile Thread mApplyWaiter;
+    private final Runnable mApplyTorch = new Runnable() {
+		public void run() {
+			// Whatever happens, the waiter has to be let go
+			try {
+				// Read in this order: the waiter sets mApplyCancelled before it
+				// clears its interrupt
+				final boolean stopped = mApplyWaiter.isInterrupted() || mApplyCancelled;
+				mApplyResult = !stopped && switchTorch(mApplyOn);
+			} finally {
+				mApplyDone = true;
+				LockSupport.unpark(mApplyWaiter);
+			}
+		}
+	};
+    
+    // Taps go through the queue, so a burst of them makes one camera write
+    private TorchCommandQueue mLightCommands;
+    
+    // Preview frames for whoever wants to look at them. The pipeline forgets
+    // its analyzer when the camera goes, so it's kept here for the next preview.
+    private FramePipeline mFrames;
+    private volatile FramePipeline.Analyzer mFrameAnalyzer;
+    
+    // Camera.open() opens the first back-facing camera; like the orientation
+    // lookup always has, assume that's camera 0
+    private static final int BACK_CAMERA_ID = Camera.CameraInfo.CAMERA_FACING_BACK;
     
     private static boolean cameraInfoSupported = false;
     
@@ -80,13 +129,33 @@ class PreviewSurface extends SurfaceView implements SurfaceHolder.Callback {
         mHolder = getHolder();
         mHolder.addCallback(this);
         mHolder.setType(SurfaceHolder.SURFACE_TYPE_PUSH_BUFFERS);
+        
+        mCameraHandler = CameraThread.getHandler();
+        mUiHandler = new Handler(Looper.getMainLooper());
+        mCapabilities = new CameraCapabilities(getContext(), BACK_CAMERA_ID);
+        mMachine = new TorchStateMachine(mCameraOps);
+        mFrames = new FramePipeline(mCameraHandler, MonotonicClock.SYSTEM);
+        mLightCommands = new TorchCommandQueue(CameraThread.getExecutor(), new TorchCommandQueue.Target() {
+			public void setLight(boolean on) {
+				mMachine.setLight(on);
+				if (on && mMachine.getState() == TorchStateMachine.PREVIEWING) {
+					LatencyRecorder.get().mark(LatencyRecorder.TORCH_ON);
+				}
+			}
+		});
 	}
 
 	public void surfaceCreated(SurfaceHolder holder) {
         // The Surface has been created, acquire the camera and tell it where
         // to draw.
 		mHolder = holder;
-		initCamera();
+		LatencyRecorder.get().mark(LatencyRecorder.SURFACE_CREATED);
+		mCameraHandler.post(new Runnable() {
+			public void run() {
+				mMachine.surfaceCreated();
+			}
+		});
+		mLightCommands.fence();
     	//Log.d(TAG, "SURFACE CREATED");
     }
 
@@ -94,46 +163,282 @@ class PreviewSurface extends SurfaceView implements SurfaceHolder.Callback {
         // Surface will be destroyed when we return, so stop the preview.
         // Because the CameraDevice object is not a shared resource, it's very
         // important to release it when the activity is paused.
-    	releaseCamera();
+    	// The UI thread doesn't wait for that: a viewfinder preview that still
+    	// draws into the surface meanwhile only gets errors back from it.
+    	// On a configuration change the camera outlives us, so the next surface
+    	// can use it without reopening it.
+    	final boolean retain = isChangingConfigurations();
+    	mCameraHandler.post(new Runnable() {
+			public void run() {
+				mMachine.surfaceDestroyed(retain);
+			}
+		});
+    	mLightCommands.fence();
     	//Log.d(TAG, "SURFACE DESTROYED");
     }
 
-    public void surfaceChanged(SurfaceHolder holder, int format, int w, int h) {
+    public void surfaceChanged(SurfaceHolder holder, int format, final int w, final int h) {
         // Now that the size is known, set up the camera parameters and begin
         // the preview.
-    	if (hasCamera) {
-	        mWidth = w;
-	        mHeight = h;
-	        setParameters();
-	        mCamera.startPreview();
-	        mCallback.cameraReady();
-			hasSurface = true;
-    	}
+    	LatencyRecorder.get().mark(LatencyRecorder.SURFACE_CHANGED);
+    	final int rotation = getDisplayRotation();
+    	mCameraHandler.post(new Runnable() {
+			public void run() {
+				mMachine.surfaceChanged(w, h, rotation);
+			}
+		});
+    	mLightCommands.fence();
     	//Log.d(TAG, "SURFACE CHANGED");
     }
     
-    private void setParameters() {
-    	mParameters = mCamera.getParameters();
-
-        if (isViewfinder) {
-	        List<Size> sizes = mParameters.getSupportedPreviewSizes();
+    /** UI thread only */
+    private boolean isChangingConfigurations() {
+    	return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+    			&& mActivity.isChangingConfigurations();
+    }
+    
+    /** Read on the UI thread; the window manager is not ours to touch from the camera thread */
+    private int getDisplayRotation() {
+    	return mActivity.getWindowManager().getDefaultDisplay().getRotation();
+    }
+    
+    /** The Camera calls behind each state machine transition; camera thread only */
+    private final TorchStateMachine.CameraOps mCameraOps = new TorchStateMachine.CameraOps() {
+    	public int open() {
+			try {
+				// Take the camera SearchLight pre-warmed, or the one the previous
+				// surface retained across a configuration change
+				CameraParameterCache held = CameraHolder.take();
+				if (held != null) {
+					mParameters = held;
+					mCamera = held.getCamera();
+					if (adoptPreview(CameraHolder.takePreviewTarget())) {
+						return TorchStateMachine.PREVIEWING;
+					}
+				} else {
+			    	mCamera = Camera.open();
+			    	mParameters.attach(mCamera);
+			    	LatencyRecorder.get().mark(LatencyRecorder.CAMERA_OPENED);
+				}
+				return TorchStateMachine.OPENED;
+			} catch (RuntimeException e) {
+				Log.e(TAG, "Could not open Camera"+ e);
+				return TorchStateMachine.CLOSED;
+			}
+    	}
+    	
+    	public boolean attachSurface() {
+	        try {
+	        	if (!isViewfinder && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+	        		attachDummyTarget();
+	        	} else {
+	        		mCamera.setPreviewDisplay(mHolder);
+	        	}
+	        	return true;
+	        } catch (IOException exception) {
+				Log.e(TAG, "Could not set preview surface");
+	            // TODO: add more exception handling logic here
+				return false;
+	        }
+    	}
+    	
+    	public boolean isSizedToSurface() {
+    		return isViewfinder;
+    	}
+    	
+    	public boolean isOffscreen() {
+    		return mDummyTarget != null;
+    	}
+    	
+    	public void configure(int width, int height, int rotation) {
 	        // Pass the height and width BACKWARDS because this is portrait,
 	        // but the "supported" sizes are for landscape
-	        Size optimalSize = getOptimalPreviewSize(sizes, mHeight, mWidth);
-	        mParameters.setPreviewSize(optimalSize.width, optimalSize.height);
-	        mCamera.setParameters(mParameters);
-        }
-        
-        setCameraDisplayOrientation();
+	        final String use = isViewfinder ? height + "x" + width : "lean";
+	        int[] size = mCapabilities.getPreviewSize(use);
+	        if (size == null) {
+	        	List<Size> sizes = mParameters.getParameters().getSupportedPreviewSizes();
+	        	final int count = sizes == null ? 0 : sizes.size();
+	        	int[] widths = new int[count];
+	        	int[] heights = new int[count];
+	        	for (int i = 0; i < count; i++) {
+	        		Size s = sizes.get(i);
+	        		widths[i] = s.width;
+	        		heights[i] = s.height;
+	        	}
+	        	// Nobody sees the frames outside the viewfinder, so make the ISP
+	        	// do as little as it can
+	        	int picked = isViewfinder
+	        			? PreviewSizes.pickOptimal(widths, heights, count, height, width)
+	        			: PreviewSizes.pickSmallest(widths, heights, count);
+	        	if (picked >= 0) {
+	        		size = new int[] { widths[picked], heights[picked] };
+	        		mCapabilities.putPreviewSize(use, size[0], size[1]);
+	        	}
+	        }
+	        if (size != null) {
+	        	mParameters.setPreviewSize(size[0], size[1]);
+	        }
+	        setPreviewFpsRange(!isViewfinder);
+	        mParameters.setAutoExposureLock(mExposureLocked);
+	        setCameraDisplayOrientation(rotation);
+    	}
+    	
+    	public void setOrientation(int rotation) {
+    		// Before ICS the orientation can't change while previewing; a lean
+    		// preview isn't shown anyway
+    		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+    			setCameraDisplayOrientation(rotation);
+    		}
+    	}
+    	
+    	public void startPreview() {
+    		attachFrames();
+    		mCamera.startPreview();
+    	}
+    	
+    	public void stopPreview() {
+    		mFrames.detach();
+    		mCamera.stopPreview();
+    		mParameters.forgetFlashMode();
+    	}
+    	
+    	public void setTorch(boolean on) {
+    		if (!mCapabilities.hasTorch(mParameters.getParameters())) return;
+    		mParameters.setFlashMode(on ? Parameters.FLASH_MODE_TORCH : Parameters.FLASH_MODE_OFF);
+    	}
+    	
+    	public void release() {
+	        if (Log.isLoggable(TAG, Log.DEBUG)) {
+	        	Log.d(TAG, "Camera parameters applied " + mParameters.getAppliedCount()
+	        			+ ", skipped " + mParameters.getSkippedCount() + "; " + mLightCommands + "; " + mFrames);
+	        }
+	        mFrames.quit();
+	        mParameters.detach();
+	        mCamera.release();
+	        mCamera = null;
+	        releaseDummyTarget();
+    	}
+    	
+    	/** Keep the camera, with its parameters (flash mode included), in CameraHolder for our replacement */
+    	public void retain(boolean previewing) {
+    		if (previewing) {
+    			// Our replacement sends the frames on, if it wants them
+    			mFrames.detach();
+    			CameraHolder.retain(mParameters, mDummyTarget);
+    			mDummyTarget = null;
+    		} else {
+    			CameraHolder.retain(mParameters, null);
+    			// The camera doesn't need our texture once its preview is stopped
+    			releaseDummyTarget();
+    		}
+	        mParameters = new CameraParameterCache();
+	        mCamera = null;
+	        // Our frame worker, and the analyzer it holds, mustn't outlive us
+	        mFrames.quit();
+    	}
+    	
+    	public void notifyReady() {
+	    	mUiHandler.post(new Runnable() {
+				public void run() {
+					mCallback.cameraReady();
+				}
+			});
+    	}
+    	
+    	public void notifyNotAvailable() {
+	    	mUiHandler.post(new Runnable() {
+				public void run() {
+					mCallback.cameraNotAvailable();
+				}
+			});
+    	}
+    };
+    
+    /**
+     * Camera thread only. Send the preview to a texture nobody draws, instead of
+     * the 1x1 view, so no display buffers are composited for it either.
+     */
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void attachDummyTarget() throws IOException {
+    	if (mDummyTarget == null) {
+    		mDummyTarget = new SurfaceTexture(0);
+    	}
+    	mCamera.setPreviewTexture(mDummyTarget);
+    }
+    
+    /** Camera thread only */
+    private void releaseDummyTarget() {
+    	if (mDummyTarget != null) {
+    		CameraHolder.releaseTarget(mDummyTarget);
+    		mDummyTarget = null;
+    	}
+    }
+    
+    /**
+     * Camera thread only. Carry on with the preview our predecessor left
+     * running into its texture, if there is one and it's still what we want.
+     * @return true if the preview was taken over
+     */
+    private boolean adoptPreview(SurfaceTexture target) {
+    	if (target == null) return false;
+    	if (isViewfinder) {
+    		// The viewfinder has to show it; start again on the surface
+    		mCamera.stopPreview();
+    		mParameters.forgetFlashMode();
+    		CameraHolder.releaseTarget(target);
+    		return false;
+    	}
+    	mDummyTarget = target;
+    	attachFrames();
+    	return true;
+    }
+    
+    /** Camera thread only. Send frames through the pipeline, if anyone's looking at them. */
+    private void attachFrames() {
+    	final FramePipeline.Analyzer analyzer = mFrameAnalyzer;
+    	if (analyzer == null) return;
+    	mFrames.setAnalyzer(analyzer);
+    	Parameters parameters = mParameters.getParameters();
+    	Size size = parameters.getPreviewSize();
+    	mFrames.attach(mCamera, size.width, size.height, parameters.getPreviewFormat());
+    }
+    
+    /**
+     * Camera thread only. The lowest frame rate the camera offers for a lean
+     * torch, or the highest for a smooth viewfinder.
+     */
+    private void setPreviewFpsRange(boolean lean) {
+    	final String use = lean ? "lean" : "viewfinder";
+    	int[] best = mCapabilities.getFpsRange(use);
+    	if (best == null) {
+	    	List<int[]> ranges = mParameters.getParameters().getSupportedPreviewFpsRange();
+	    	if (ranges == null || ranges.isEmpty()) return;
+	    	for (int[] range : ranges) {
+	    		if (best == null || isBetterFpsRange(range, best, lean)) {
+	    			best = range;
+	    		}
+	    	}
+	    	best = new int[] {
+	    		best[Parameters.PREVIEW_FPS_MIN_INDEX], best[Parameters.PREVIEW_FPS_MAX_INDEX]
+	    	};
+	    	mCapabilities.putFpsRange(use, best[0], best[1]);
+    	}
+    	mParameters.setPreviewFpsRange(best[0], best[1]);
+    }
+    
+    private static boolean isBetterFpsRange(int[] range, int[] best, boolean lean) {
+    	int max = range[Parameters.PREVIEW_FPS_MAX_INDEX];
+    	int bestMax = best[Parameters.PREVIEW_FPS_MAX_INDEX];
+    	if (max != bestMax) return lean ? max < bestMax : max > bestMax;
+    	// Same top rate; a lean torch also wants the lowest floor
+    	int min = range[Parameters.PREVIEW_FPS_MIN_INDEX];
+    	int bestMin = best[Parameters.PREVIEW_FPS_MIN_INDEX];
+    	return lean ? min < bestMin : min > bestMin;
     }
     
-    private void setCameraDisplayOrientation() {
+    /** Camera thread only */
+    private void setCameraDisplayOrientation(int rotation) {
     	if (cameraInfoSupported) {
-    		android.hardware.Camera.CameraInfo info =
-	            new android.hardware.Camera.CameraInfo();
-    		android.hardware.Camera.getCameraInfo(android.hardware.Camera.CameraInfo.CAMERA_FACING_BACK, info);
-		    int rotation = mActivity.getWindowManager().getDefaultDisplay()
-		            .getRotation();
 		    int degrees = 0;
 		    switch (rotation) {
 		        case Surface.ROTATION_0: degrees = 0; break;
@@ -142,7 +447,7 @@ class PreviewSurface extends SurfaceView implements SurfaceHolder.Callback {
 		        case Surface.ROTATION_270: degrees = 270; break;
 		    }
 		
-		    int result = (info.orientation - degrees + 360) % 360;
+		    int result = (mCapabilities.getOrientation() - degrees + 360) % 360;
 		    mCamera.setDisplayOrientation(result);
     	} else {
 		    mCamera.setDisplayOrientation(90);
@@ -150,49 +455,85 @@ class PreviewSurface extends SurfaceView implements SurfaceHolder.Callback {
     }
     
     public void initCamera() {
-    	if (!hasCamera) {
-			try {
-		    	mCamera = Camera.open();
-		    	hasCamera = true;
-			} catch (RuntimeException e) {
-				Log.e(TAG, "Could not open Camera"+ e);
-		    	hasCamera = false;
-				mCallback.cameraNotAvailable();
-				return;
+    	mCameraHandler.post(new Runnable() {
+			public void run() {
+				mMachine.open();
 			}
-	        try {
-	           mCamera.setPreviewDisplay(mHolder);
-	        } catch (IOException exception) {
-				Log.e(TAG, "Could not set preview surface");
-	            mCamera.release();
-	            mCamera = null;
-	            hasCamera = false;
-	            // TODO: add more exception handling logic here
-	        }
-    	}
+		});
+    	mLightCommands.fence();
     }
     
     public void lightOff() {
-    	if (hasSurface && hasCamera) {
-	        mParameters.setFlashMode(Parameters.FLASH_MODE_OFF);
-	        mCamera.setParameters(mParameters);
-    	}
+    	mLightCommands.submit(false);
     }
 
     public void lightOn() {
-    	if (this.isShown() && hasCamera) {
-    		if (mParameters == null) {
-    			setParameters();
-    		}
-	        mParameters.setFlashMode(Parameters.FLASH_MODE_TORCH);
-	        mCamera.setParameters(mParameters);
-    	} else {
-    		initCamera();
+    	mLightCommands.submit(true);
+    }
+    
+    /**
+     * The camera may only be touched from the camera thread, so hand the change
+     * over and wait. It jumps the queue, since timing loops measure the wait.
+     *
+     * <p>A caller that's interrupted is refused on the camera thread, where
+     * the commands the UI sends afterwards also run, so the switch can't land
+     * after them. It still waits for the camera thread to say so.</p>
+     */
+    public boolean applyTorch(boolean on) {
+    	if (Looper.myLooper() == mCameraHandler.getLooper()) {
+    		// Posting would only wait for ourselves
+    		return switchTorch(on);
+    	}
+    	final Thread self = Thread.currentThread();
+    	synchronized (mApplyTurn) {
+    		if (self.isInterrupted()) return false;
+	    	mApplyOn = on;
+	    	mApplyCancelled = false;
+	    	mApplyDone = false;
+	    	mApplyWaiter = self;
+	    	mCameraHandler.postAtFrontOfQueue(mApplyTorch);
+	    	boolean interrupted = false;
+	    	while (!mApplyDone) {
+	    		if (self.isInterrupted()) {
+	    			// Parking returns at once while interrupted, so clear it
+	    			// until the camera thread is done, saying so first
+	    			mApplyCancelled = true;
+	    			Thread.interrupted();
+	    			interrupted = true;
+	    		}
+	    		LockSupport.park(this);
+	    	}
+	    	if (interrupted) self.interrupt();
+	    	return mApplyResult;
     	}
     }
     
-    public boolean hasCamera() {
-    	return hasCamera;
+    /**
+     * Camera thread only. A camera that throws (Camera.setParameters() can, on
+     * a camera that's gone bad) reads as a torch that isn't ready.
+     */
+    private boolean switchTorch(boolean on) {
+    	try {
+    		return mMachine.applyTorch(on);
+    	} catch (RuntimeException e) {
+    		return false;
+    	}
+    }
+    
+    public void open() {
+    	initCamera();
+    }
+    
+    public void release() {
+    	releaseCamera();
+    }
+    
+    /**
+     * Only the active backend may hold the camera. An inactive surface stays
+     * in the layout but doesn't open the camera when it's created.
+     */
+    public void setActive(boolean active) {
+    	mMachine.setActive(active);
     }
     
     public void setCallback(Callback c) {
@@ -200,64 +541,66 @@ class PreviewSurface extends SurfaceView implements SurfaceHolder.Callback {
     	mActivity = (Activity) c;
     }
     
-    public void setIsViewfinder() {
-    	isViewfinder = true;
+    /**
+     * The viewfinder shows the preview at the surface's size; every other mode
+     * gets the leanest preview the camera can run.
+     */
+    public void setIsViewfinder(boolean viewfinder) {
+    	if (viewfinder == isViewfinder) return;
+    	isViewfinder = viewfinder;
+    	mCameraHandler.post(new Runnable() {
+			public void run() {
+				mMachine.retarget();
+			}
+		});
+    	mLightCommands.fence();
     }
     
-    public void releaseCamera() {
-    	if (hasCamera) {
-	        mCamera.stopPreview();
-	        mCamera.release();
-	        mCamera = null;
-	        hasCamera = false;
-    	}
+    /**
+     * Have each preview frame looked at, on a worker thread, or stop with null.
+     * Frames come at whatever size the current mode's preview runs at.
+     */
+    public void setFrameAnalyzer(FramePipeline.Analyzer analyzer) {
+    	mFrameAnalyzer = analyzer;
+    	mFrames.setAnalyzer(analyzer);
+    	mCameraHandler.post(new Runnable() {
+			public void run() {
+				if (mMachine.getState() != TorchStateMachine.PREVIEWING) return;
+				// Takes effect on the running preview
+				if (mFrameAnalyzer != null) {
+					attachFrames();
+				} else {
+					mFrames.detach();
+				}
+			}
+		});
     }
     
-    public void startPreview() {
-    	if (hasCamera) {
-	        setParameters();
-	        mCamera.setDisplayOrientation(90);
-    		mCamera.startPreview();
-    	}
+    /**
+     * Hold the camera's exposure, so brightness in the frames follows the
+     * scene instead of being evened out. Where it can't be locked, nothing changes.
+     */
+    public void setExposureLocked(boolean locked) {
+    	if (locked == mExposureLocked) return;
+    	mExposureLocked = locked;
+    	mCameraHandler.post(new Runnable() {
+			public void run() {
+				if (mMachine.getState() >= TorchStateMachine.ATTACHED) {
+					mParameters.setAutoExposureLock(mExposureLocked);
+				}
+			}
+		});
     }
     
-    // Thank you, ApiDemos :)
-    private Size getOptimalPreviewSize(List<Size> sizes, int w, int h) {
-        final double ASPECT_TOLERANCE = 0.05;
-        double targetRatio = (double) w / h;
-        if (sizes == null) return null;
-
-        Size optimalSize = null;
-        double minDiff = Double.MAX_VALUE;
-
-        int targetHeight = h;
-        
-        // Try to find an size match aspect ratio and size
-        for (Size size : sizes) {
-            double ratio = (double) size.width / size.height;
-            if (Math.abs(ratio - targetRatio) > ASPECT_TOLERANCE) continue;
-            if (Math.abs(size.height - targetHeight) < minDiff) {
-                optimalSize = size;
-                minDiff = Math.abs(size.height - targetHeight);
-            }
-        }
-
-        // Cannot find the one match the aspect ratio, ignore the requirement
-        if (optimalSize == null) {
-            minDiff = Double.MAX_VALUE;
-            for (Size size : sizes) {
-                if (Math.abs(size.height - targetHeight) < minDiff) {
-                    optimalSize = size;
-                    minDiff = Math.abs(size.height - targetHeight);
-                }
-            }
-        }
-        
-        return optimalSize;
+    public void releaseCamera() {
+    	mCameraHandler.post(new Runnable() {
+			public void run() {
+				mMachine.release();
+			}
+		});
+    	mLightCommands.fence();
     }
     
-    public interface Callback {
-    	public void cameraReady();
-    	public void cameraNotAvailable();
+    public interface Callback extends TorchBackend.Callback {
     }
 }
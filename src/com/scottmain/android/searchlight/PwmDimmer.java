@@ -0,0 +1,93 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Dims a torch that can only be on or off, by switching it at a carrier rate
+ * with the lit share of each period set by the level (pulse-width modulation).
+ *
+ * <p>The carrier follows how fast this torch actually switches, from the
+ * sequencer's running estimate of its switches: a setParameters() round-trip
+ * on the legacy path is often 10-20 ms, so the same carrier can't suit every
+ * device. Until the first switch is timed, a slow torch is assumed. No segment
+ * is ever shorter than one switch. For levels whose lit part would be, the lit
+ * part stays one switch long and the period stretches instead, down to a
+ * floor rate.</p>
+ *
+ * <p>A light fully on or off needs no switching at all; {@link #isSolid(float)}
+ * says when to leave it to the backend's command queue instead.</p>
+ */
+class PwmDimmer extends TorchSequencer {
+	private static final long DEFAULT_SWITCH_NANOS = 20000000; // until a switch is timed
+	private static final int CARRIER_SWITCHES = 4; // carrier period in switch times
+	private static final long MIN_PERIOD_NANOS = 5000000; // 200 Hz; faster buys nothing
+	private static final long MAX_PERIOD_NANOS = 125000000; // 8 Hz; slower is just blinking
+
+	private volatile float mLevel = 1f;
+
+	// Sequencer thread only
+	private boolean mLit;
+	private boolean mSolid; // this period is all lit or all dark
+	private long mSegmentNanos;
+	private long mDarkNanos;
+
+	PwmDimmer(TorchBackend torch, MonotonicClock clock) {
+		super(torch, clock, "PwmThread");
+	}
+
+	/** Whether a level is fully on or off, which is a steady light rather than a dimmer's */
+	static boolean isSolid(float level) {
+		return level <= 0f || level >= 1f;
+	}
+
+	/** Brightness from 0 to 1; takes effect from the next period */
+	void setLevel(float level) {
+		mLevel = Math.max(0f, Math.min(level, 1f));
+	}
+
+	@Override
+	void rewind() {
+		mLit = false;
+		mSolid = true;
+	}
+
+	@Override
+	boolean advance() {
+		if (mLit && !mSolid) {
+			mLit = false;
+			mSegmentNanos = mDarkNanos;
+			return true;
+		}
+		// Start of a period; pick up level and switch time changes here
+		final long cost = mCostEstimate;
+		final long switchNanos = cost > 0 ? cost : DEFAULT_SWITCH_NANOS;
+		final long period = Math.max(MIN_PERIOD_NANOS,
+				Math.min(CARRIER_SWITCHES * switchNanos, MAX_PERIOD_NANOS));
+		final float level = mLevel;
+		long lit = (long) (level * period);
+		long dark = period - lit;
+		if (dark < switchNanos) {
+			lit = period;
+			dark = 0;
+		} else if (lit < switchNanos && level > 0) {
+			// Too short to switch; keep the duty by stretching the period
+			lit = switchNanos;
+			dark = Math.min((long) (lit * (1 - level) / level), MAX_PERIOD_NANOS - lit);
+		} else if (lit < switchNanos) {
+			lit = 0;
+		}
+		mSolid = lit == 0 || dark == 0;
+		mLit = lit > 0;
+		mSegmentNanos = mSolid ? period : lit;
+		mDarkNanos = dark;
+		return true;
+	}
+
+	@Override
+	boolean isSegmentLit() {
+		return mLit;
+	}
+
+	@Override
+	long getSegmentNanos() {
+		return mSegmentNanos;
+	}
+}
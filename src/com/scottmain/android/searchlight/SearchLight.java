@@ -18,15 +18,17 @@ package com.scottmain.android.searchlight;
 
 import android.app.AlertDialog;
 import android.app.Dialog;
-import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
-import android.content.SharedPreferences;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.util.Log;
 import android.support.v4.app.DialogFragment;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
+import android.support.v4.app.FragmentTransaction;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.View;
@@ -35,19 +37,36 @@ import android.view.animation.Animation;
 import android.view.animation.AnimationUtils;
 import android.widget.Button;
 import android.widget.RelativeLayout.LayoutParams;
+import android.widget.Toast;
 
 public class SearchLight extends FragmentActivity implements PreviewSurface.Callback, 
 		ModeDialogFragment.ModeDialogListener, LightControlFragment.LightControlListener  {
-	//private final static String TAG = "SearchLight";
 	private final static String MODE_TYPE = "mode_type";
+	private final static String LIGHT_ON = "light_on";
+	private final static String TAG = "SearchLight";
+	private final static long STATS_INTERVAL = 500; // ms, for the strobe and music stats
+	
+	// Created when the class loads, so the first launch is timed from about process start
+	private final static LatencyRecorder sLatency = LatencyRecorder.get();
 	
 	PreviewSurface mSurface;
+	TorchBackend mTorch; // mSurface, or a preview-free backend where the device has one
+	CameraManagerTorch mManagerTorch;
+	TorchSequencer mSequencer; // drives mTorch in strobe and Morse modes; rebuilt when the backend changes
+	AudioPulse mPulse; // drives mTorch in music mode, likewise
+	float mStrobeRate = 10f;
+	float mMorseSpeed = 12f; // words per minute
+	int[] mMorseTable; // compiled message; null for the player's default SOS
+	float mDimLevel = 1f;
+	AutoTorch mAutoTorch; // judges the preview in auto mode; made on first use
+	MorseReceiver mMorseReceiver; // reads the viewfinder; made on first use
+	final Handler mHandler = new Handler();
 	boolean on = false;
-	boolean paused = false;
-	boolean skipAnimate = false;
-	boolean mSystemUiVisible = true;
+	boolean paused = false; // released the light in onPause(); onResume() opens it again
 	boolean mCameraReady = false; // to make sure we don't turn on light when preview surface resizes
+	boolean mAutoOn = true; // turn the light on when the camera is ready, unless the user had it off
 	int mCurrentMode;
+	SettingsStore mSettings;
 	
 	
 	FragmentManager mFragmentManager;
@@ -57,25 +76,51 @@ public class SearchLight extends FragmentActivity implements PreviewSurface.Call
     @Override
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-
-        setContentView(R.layout.main);
-        mSurface = (PreviewSurface) findViewById(R.id.surface);
-        mSurface.setCallback(this);
+        sLatency.begin();
+        sLatency.mark(LatencyRecorder.ON_CREATE);
         
+        if (savedInstanceState != null) {
+        	// Recreated for a configuration change; the camera and light were kept
+        	// alive, so carry on with the light as the user left it
+        	on = savedInstanceState.getBoolean(LIGHT_ON, false);
+        	mAutoOn = on;
+        }
+
+        // Start loading the saved mode now; if it isn't in by the time it's
+        // read, the read loads it rather than wait
+        mSettings = SettingsStore.get(this);
+
         int mode; // viewing mode
         
         // When user selects mode from menu, there's a mode type
         mode = getIntent().getIntExtra(MODE_TYPE, 0);
-        // When launched clean, there's no mode in the intent, so check preference
+        
+        // Start opening the camera now so it overlaps with inflating the UI.
+        // Without a saved mode to go on yet, that's only sure where every mode
+        // uses it.
+        boolean prewarmed = mode != 0 ? usesLegacyCamera(mode) : !CameraManagerTorch.isSupported();
+        if (prewarmed) {
+        	CameraHolder.prewarm();
+        }
+
+        setContentView(R.layout.main);
+        mSurface = (PreviewSurface) findViewById(R.id.surface);
+        mSurface.setCallback(this);
+        
+        // When launched clean, there's no mode in the intent, so check settings
         if (mode == 0) {
-            SharedPreferences modePreferences = getPreferences(Context.MODE_PRIVATE);
-            mode = modePreferences.getInt(MODE_TYPE, 0);
+            mode = mSettings.getInt(SettingsStore.KEY_MODE, 0);
             
             // Rewrite the intent to carry the desired mode
             Intent intent = getIntent();
 	        intent.putExtra(MODE_TYPE, mode);
             setIntent(intent);
         }
+
+        // The torch settings as they were left; the controls start from them too
+        mStrobeRate = mSettings.getFloat(SettingsStore.KEY_STROBE_RATE, mStrobeRate);
+        mMorseSpeed = mSettings.getFloat(SettingsStore.KEY_MORSE_SPEED, mMorseSpeed);
+        mDimLevel = mSettings.getFloat(SettingsStore.KEY_DIM_LEVEL, mDimLevel);
         
         switch(mode) {
         case R.id.mode_blackout:
@@ -87,12 +132,31 @@ public class SearchLight extends FragmentActivity implements PreviewSurface.Call
         case R.id.mode_lightswitch:
         	mCurrentMode = R.id.mode_lightswitch;
         	break;
+        case R.id.mode_strobe:
+        	mCurrentMode = R.id.mode_strobe;
+        	break;
+        case R.id.mode_morse:
+        	mCurrentMode = R.id.mode_morse;
+        	break;
+        case R.id.mode_dimmer:
+        	mCurrentMode = R.id.mode_dimmer;
+        	break;
+        case R.id.mode_auto:
+        	mCurrentMode = R.id.mode_auto;
+        	break;
+        case R.id.mode_pulse:
+        	mCurrentMode = R.id.mode_pulse;
+        	break;
         case R.id.mode_lightbulb:
         default:
             mCurrentMode = R.id.mode_lightbulb;
         	break;
         }
         
+        if (!prewarmed && usesLegacyCamera(mCurrentMode)) {
+        	CameraHolder.prewarm();
+        }
+        
         // Set up layout with initial controller fragment
         mFragmentManager = getSupportFragmentManager();
         switchControlFragment(mCurrentMode);
@@ -119,7 +183,8 @@ public class SearchLight extends FragmentActivity implements PreviewSurface.Call
     private void turnOn() {
     	if (!on) {
     	    on = true;
-    	    mSurface.lightOn();
+    	    if (mAutoTorch != null) mAutoTorch.setLit(true);
+    	    lightOn();
     	    mCurrentFragment.toggleLightControl(on);
     	}
     }
@@ -127,24 +192,234 @@ public class SearchLight extends FragmentActivity implements PreviewSurface.Call
     private void turnOff() {
     	if (on) {
 	        on = false;
-    	    mSurface.lightOff();
+    	    if (mAutoTorch != null) mAutoTorch.setLit(false);
+    	    lightOff();
     	    mCurrentFragment.toggleLightControl(on);
     	}
     }
 
+    /** Switch the light on steadily, or start playing the mode's sequence */
+    private void lightOn() {
+    	switch (mCurrentMode) {
+    	case R.id.mode_strobe:
+    	case R.id.mode_morse:
+    		startSequencer();
+    		break;
+    	case R.id.mode_pulse:
+    		startPulse();
+    		break;
+    	case R.id.mode_dimmer:
+    		if (canDimNatively()) {
+    			stopSequencer();
+    			mManagerTorch.setLevel(mDimLevel);
+    		} else if (PwmDimmer.isSolid(mDimLevel)) {
+    			// Nothing to switch; the queue holds the light where it is
+    			stopSequencer();
+    			if (mDimLevel > 0) mTorch.lightOn();
+    			else mTorch.lightOff();
+    		} else {
+    			startSequencer();
+    		}
+    		break;
+    	default:
+    		mTorch.lightOn();
+    		break;
+    	}
+    }
+
+    private void lightOff() {
+    	if (!stopSequencer()) {
+    		mTorch.lightOff();
+    	}
+    }
+
+    /** (Re)start the current mode's sequence on the current backend, with fresh timing stats */
+    private void startSequencer() {
+    	stopSequencer();
+    	if (mCurrentMode == R.id.mode_morse) {
+    		MorsePlayer player = new MorsePlayer(mTorch, MonotonicClock.SYSTEM);
+    		if (mMorseTable != null) player.setTable(mMorseTable);
+    		player.setWordsPerMinute(mMorseSpeed);
+    		mSequencer = player;
+    	} else if (mCurrentMode == R.id.mode_dimmer) {
+    		PwmDimmer dimmer = new PwmDimmer(mTorch, MonotonicClock.SYSTEM);
+    		dimmer.setLevel(mDimLevel);
+    		mSequencer = dimmer;
+    	} else {
+    		StrobeEngine strobe = new StrobeEngine(mTorch, MonotonicClock.SYSTEM);
+    		strobe.setFrequency(mStrobeRate);
+    		mSequencer = strobe;
+    		mHandler.postDelayed(mShowStrobeStats, STATS_INTERVAL);
+    	}
+    	mSequencer.start();
+    }
+
+    /** Follow the microphone on the current backend, with fresh latency stats */
+    private void startPulse() {
+    	stopSequencer();
+    	mPulse = new AudioPulse(mTorch, new MicrophoneSource(), MonotonicClock.SYSTEM, mPulseEnded);
+    	mPulse.start();
+    	mHandler.postDelayed(mShowPulseStats, STATS_INTERVAL);
+    }
+
+    /** The microphone wouldn't start, or stopped giving sound; say so, rather than go dark */
+    private final AudioPulse.Listener mPulseEnded = new AudioPulse.Listener() {
+    	public void onPulseEnded(final AudioPulse pulse, final int why, final int result) {
+    		mHandler.post(new Runnable() {
+    			public void run() {
+    				// Already stopped, and perhaps replaced, by the user
+    				if (pulse != mPulse) return;
+    				Log.w(TAG, (why == AudioPulse.START_FAILED ? "Microphone would not start"
+    						: "Microphone stopped, read returned " + result) + "; " + pulse,
+    						pulse.getFailure());
+    				turnOff();
+    				Toast.makeText(SearchLight.this, R.string.pulse_failed, Toast.LENGTH_LONG).show();
+    			}
+    		});
+    	}
+    };
+
+    /**
+     * Stop the sequence or the music pulse without waiting for its thread, and
+     * turn the light off through the backend's queue. The thread's switches
+     * are refused from now on, so that off is the one that counts.
+     * @return true if a sequence, or the music pulse, was playing
+     */
+    private boolean stopSequencer() {
+    	boolean wasPulsing = mPulse != null;
+    	if (wasPulsing) {
+    		mHandler.removeCallbacks(mShowPulseStats);
+    		mPulse.stop();
+    		if (Log.isLoggable(TAG, Log.DEBUG)) {
+    			Log.d(TAG, "Pulse " + mPulse);
+    		}
+    		mPulse = null;
+    	}
+    	if (mSequencer != null) {
+    		mHandler.removeCallbacks(mShowStrobeStats);
+    		mSequencer.stop();
+    		if (Log.isLoggable(TAG, Log.DEBUG)) {
+    			Log.d(TAG, "Sequencer " + mSequencer.getEdgeCount() + " edges, jitter "
+    					+ mSequencer.getJitterMillis() + " ms, switch "
+    					+ mSequencer.getSwitchMillis() + " ms, overruns " + mSequencer.getOverruns());
+    		}
+    		mSequencer = null;
+    	} else if (!wasPulsing) {
+    		return false;
+    	}
+    	mTorch.lightOff();
+    	return true;
+    }
+
+    private final Runnable mShowStrobeStats = new Runnable() {
+    	public void run() {
+    		if (!(mSequencer instanceof StrobeEngine)) return;
+    		StrobeEngine strobe = (StrobeEngine) mSequencer;
+    		mCurrentFragment.showStrobeStats(getString(R.string.strobe_stats,
+    				strobe.getAchievedFrequency(), strobe.getJitterMillis(),
+    				strobe.getMaxErrorMillis()));
+    		mHandler.postDelayed(this, STATS_INTERVAL);
+    	}
+    };
+
+    private final Runnable mShowPulseStats = new Runnable() {
+    	public void run() {
+    		if (mPulse == null) return;
+    		mCurrentFragment.showPulseStats(getString(R.string.pulse_stats,
+    				mPulse.getOnsetCount(), Math.max(0, mPulse.getLatencyMillis(50)),
+    				Math.max(0, mPulse.getLatencyMillis(95))));
+    		mHandler.postDelayed(this, STATS_INTERVAL);
+    	}
+    };
+
+	/** Implementation of LightControlFragment callback, for the strobe's rate control */
+	@Override
+	public void onStrobeRateChanged(float hz) {
+		mStrobeRate = hz;
+		if (mSequencer instanceof StrobeEngine) {
+			((StrobeEngine) mSequencer).setFrequency(hz);
+		}
+	}
+
+	/** Implementation of LightControlFragment callback, for the dimmer's level */
+	@Override
+	public void onLightLevelChanged(float level) {
+		final float previous = mDimLevel;
+		mDimLevel = level;
+		if (!on) return;
+		if (canDimNatively()) {
+			mManagerTorch.setLevel(level);
+		} else if (mSequencer instanceof PwmDimmer && !PwmDimmer.isSolid(level)) {
+			((PwmDimmer) mSequencer).setLevel(level);
+		} else if (!PwmDimmer.isSolid(level) || level != previous) {
+			// Between dimmed and fully on or off; a drag held at either end changes nothing
+			lightOn();
+		}
+	}
+
+	/** The LED can dim itself on some API 33+ devices; elsewhere the dimmer switches it quickly */
+	private boolean canDimNatively() {
+		return mTorch == mManagerTorch && mManagerTorch.canSetLevel();
+	}
+
+	/** Implementation of LightControlFragment callback, for the Morse message */
+	@Override
+	public void onMorseTextChanged(CharSequence text) {
+		// Compile once here, so the player never touches the text; the player
+		// sends SOS if there's nothing in it Morse can send
+		mMorseTable = Morse.compile(text);
+		if (mSequencer instanceof MorsePlayer) {
+			((MorsePlayer) mSequencer).setTable(mMorseTable);
+		}
+	}
+
+	/** Implementation of LightControlFragment callback, for the Morse speed */
+	@Override
+	public void onMorseSpeedChanged(float wpm) {
+		mMorseSpeed = wpm;
+		if (mSequencer instanceof MorsePlayer) {
+			((MorsePlayer) mSequencer).setWordsPerMinute(wpm);
+		}
+	}
+
 	@Override
 	protected void onPause() {
 		super.onPause();
+		// The sequencer thread belongs to this instance; cameraReady() restarts
+		// it in our replacement if the light stays on
+		stopSequencer();
+		if (isRecreating()) {
+			// Keep the camera and the light; PreviewSurface hands the camera to
+			// our replacement through CameraHolder
+			return;
+		}
 		turnOff();
-		mSurface.releaseCamera();
+		mTorch.release();
+		CameraHolder.releaseUnclaimed(); // in case the surface never came to take it
+		mAutoOn = true;
 		paused = true;
 	}
 	
+	@Override
+	protected void onSaveInstanceState(Bundle outState) {
+		super.onSaveInstanceState(outState);
+		outState.putBoolean(LIGHT_ON, on);
+	}
+	
+	/** isChangingConfigurations() arrived in Honeycomb; before that, treat every pause as real */
+	private boolean isRecreating() {
+		return Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB
+				&& isChangingConfigurations();
+	}
+	
 	@Override
 	protected void onResume() {
 		super.onResume();
 		if (paused) {
-			mSurface.initCamera();
+			// The backend restarts its own preview once the camera is back and
+			// calls cameraReady(), which turns the light on again
+			paused = false;
+			mTorch.open();
 		}
 		mCameraReady = false;
 	}
@@ -153,25 +428,21 @@ public class SearchLight extends FragmentActivity implements PreviewSurface.Call
 	protected void onStop() {
 		super.onStop();
 
-		// Save the current mode so it's not lost when process stops
-		SharedPreferences modePreferences = getPreferences(Context.MODE_PRIVATE);
-		SharedPreferences.Editor editor = modePreferences.edit();
-		editor.putInt(MODE_TYPE, mCurrentMode);
-		editor.commit();
-		finish(); // I give up, the camera surface doesn't come back on resume, so just kill it all
-	}
-	
-	@Override
-	public void onWindowFocusChanged(boolean hasFocus) {
-		super.onWindowFocusChanged(hasFocus);
-    	skipAnimate = false;
-        
-		if (hasFocus && paused) {
-			mSurface.startPreview();
-			paused = false;
+		// Save the current mode and torch settings so they're not lost when process stops.
+		// The level changes on every frame of a drag, so it's only saved here.
+		mSettings.putInt(SettingsStore.KEY_MODE, mCurrentMode);
+		mSettings.putFloat(SettingsStore.KEY_STROBE_RATE, mStrobeRate);
+		mSettings.putFloat(SettingsStore.KEY_MORSE_SPEED, mMorseSpeed);
+		mSettings.putFloat(SettingsStore.KEY_DIM_LEVEL, mDimLevel);
+		if (Log.isLoggable(TAG, Log.DEBUG)) {
+			Log.d(TAG, "Time to light:\n" + sLatency.report());
+			Log.d(TAG, "Text layout cache hits " + TextLayoutCache.hitCount()
+					+ ", misses " + TextLayoutCache.missCount());
 		}
+		// Stay alive: onResume() reopens the camera and PreviewSurface reattaches
+		// it to the surface when it comes back, so returning is a warm start
 	}
-
+	
 	@Override
 	protected Dialog onCreateDialog(int id) {
 		switch (id) {
@@ -204,25 +475,130 @@ public class SearchLight extends FragmentActivity implements PreviewSurface.Call
 		if (mCurrentMode == mode) return;
 
 		mCurrentMode = mode;
-		skipAnimate = true;
 	    if (mode != -1) {
 	    	switchControlFragment(mode);
 	    }
 	}
 	
 	private void switchControlFragment(int mode) {
+		// a sequence is bound to the old backend, and to the old mode's control
+		boolean wasPlaying = stopSequencer();
+		boolean wasDimmed = mCurrentFragment != null
+				&& mCurrentFragment.mCurrentMode == R.id.mode_dimmer;
+
     	// update activity state w/ new mode
         Intent intent = getIntent();
         intent.putExtra(MODE_TYPE, mode);
         setIntent(intent);
         
-        // switch fragments
-        LightControlFragment newFragment = LightControlFragment.newInstance(mode, on);
-        mFragmentManager.beginTransaction().replace(R.id.controller_fragment, newFragment).commit();
-        mCurrentFragment = newFragment;
-        if (mode == R.id.mode_viewfinder) {
-        	mSurface.setIsViewfinder();
+        // switch fragments, showing the cached one for this mode if we've built it before
+        String tag = MODE_TYPE + mode;
+        LightControlFragment fragment = (LightControlFragment) mFragmentManager.findFragmentByTag(tag);
+        FragmentTransaction transaction = mFragmentManager.beginTransaction();
+        if (mCurrentFragment != null && mCurrentFragment != fragment) {
+        	transaction.hide(mCurrentFragment);
+        }
+        if (fragment == null) {
+        	fragment = LightControlFragment.newInstance(mode, on);
+        	transaction.add(R.id.controller_fragment, fragment, tag);
+        } else {
+        	fragment.setLightOn(on);
+        	transaction.show(fragment);
         }
+        transaction.commit();
+        mCurrentFragment = fragment;
+        mSurface.setIsViewfinder(mode == R.id.mode_viewfinder);
+        boolean auto = mode == R.id.mode_auto;
+        mSurface.setExposureLocked(auto);
+        if (auto) {
+        	AutoTorch autoTorch = getAutoTorch();
+        	autoTorch.setLit(on);
+        	autoTorch.reset();
+        	mSurface.setFrameAnalyzer(autoTorch);
+        } else if (mode == R.id.mode_viewfinder) {
+        	MorseReceiver receiver = getMorseReceiver();
+        	receiver.reset();
+        	fragment.showReceivedText(null);
+        	mSurface.setFrameAnalyzer(receiver);
+        } else {
+        	mSurface.setFrameAnalyzer(null);
+        }
+        selectTorchBackend(mode);
+        if (on && (wasPlaying || wasDimmed || mode == R.id.mode_strobe
+        		|| mode == R.id.mode_morse || mode == R.id.mode_dimmer || mode == R.id.mode_pulse)) {
+        	// switch between a sequence, a dimmed light and steady; a new backend
+        	// also does this in cameraReady()
+        	lightOn();
+        }
+	}
+	
+	/**
+	 * Use CameraManager's torch where we can, because it needs no preview. The
+	 * viewfinder has to show the preview, so it always uses the legacy camera.
+	 */
+	private void selectTorchBackend(int mode) {
+		TorchBackend backend = mSurface;
+		if (!usesLegacyCamera(mode)) {
+			if (mManagerTorch == null) {
+				mManagerTorch = new CameraManagerTorch(this, this);
+			}
+			backend = mManagerTorch;
+		}
+		if (backend == mTorch) return;
+		
+		TorchBackend previous = mTorch;
+		mTorch = backend;
+		mSurface.setActive(backend == mSurface);
+		if (previous != null) {
+			// Hand the light over; cameraReady() turns it back on if it was on
+			previous.release();
+			mCameraReady = false;
+			mTorch.open();
+		} else if (mTorch != mSurface) {
+			// The legacy backend opens itself once its surface exists
+			mTorch.open();
+		}
+	}
+	
+	/** The viewfinder and auto modes need the preview, which only the legacy camera has */
+	private static boolean usesLegacyCamera(int mode) {
+		return mode == R.id.mode_viewfinder || mode == R.id.mode_auto
+				|| !CameraManagerTorch.isSupported();
+	}
+	
+	private MorseReceiver getMorseReceiver() {
+		if (mMorseReceiver == null) {
+			mMorseReceiver = new MorseReceiver(new MorseReceiver.Listener() {
+				public void onMorseText(final String text) {
+					mHandler.post(new Runnable() {
+						public void run() {
+							if (mCurrentMode != R.id.mode_viewfinder) return;
+							mCurrentFragment.showReceivedText(text);
+						}
+					});
+				}
+			});
+		}
+		return mMorseReceiver;
+	}
+	
+	private AutoTorch getAutoTorch() {
+		if (mAutoTorch == null) {
+			mAutoTorch = new AutoTorch(new AutoTorch.Listener() {
+				public void onAutoTorch(final boolean light) {
+					mHandler.post(new Runnable() {
+						public void run() {
+							// The mode may have changed since the frame was judged;
+							// coming back to auto mode resets the analyzer
+							if (mCurrentMode != R.id.mode_auto) return;
+							if (light) turnOn();
+							else turnOff();
+						}
+					});
+				}
+			});
+		}
+		return mAutoTorch;
 	}
 	
 	/** Call this to show the dialog with different light modes */
@@ -233,9 +609,15 @@ public class SearchLight extends FragmentActivity implements PreviewSurface.Call
 	}
 
 	public void cameraReady() {
+		sLatency.mark(LatencyRecorder.CAMERA_READY);
 		if (!mCameraReady) {
 			mCameraReady = true;
-			turnOn();
+			if (on) {
+				lightOn();
+			} else if (mAutoOn && mCurrentMode != R.id.mode_auto) {
+				// In auto mode the preview decides
+				turnOn();
+			}
 		}
 	}
 	
@@ -0,0 +1,188 @@
+package com.scottmain.android.searchlight;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.v4.util.AtomicFile;
+import android.util.Log;
+
+/**
+ * The app's settings (the mode, and any torch settings worth keeping) held in
+ * memory, and saved on a background thread so the UI thread never waits on a
+ * write.
+ *
+ * <p>Loading starts on the background thread when the store is first asked
+ * for, early in onCreate(). A read that gets there first doesn't wait for that
+ * thread to be scheduled; it loads the file itself, which is a few dozen bytes.
+ * Writes change memory at once; saving them is queued, and writes that arrive
+ * before the save runs go out with it. The file is replaced atomically, so a
+ * crash mid-save leaves the old one.</p>
+ *
+ * <p>Any thread.</p>
+ */
+final class SettingsStore {
+	private final static String TAG = "SettingsStore";
+	private final static String FILE_NAME = "settings.properties";
+	// Where the mode used to be kept, as Activity.getPreferences() named it
+	private final static String LEGACY_PREFS_NAME = "SearchLight";
+	private final static String LEGACY_MODE_KEY = "mode_type";
+
+	final static String KEY_MODE = "mode";
+	final static String KEY_STROBE_RATE = "strobe_rate"; // flashes per second
+	final static String KEY_MORSE_SPEED = "morse_speed"; // words per minute
+	final static String KEY_DIM_LEVEL = "dim_level"; // 0 to 1
+
+	private static SettingsStore sInstance;
+
+	private final Context mContext;
+	private final ExecutorService mExecutor;
+
+	// Guarded by this
+	private AtomicFile mFile; // set by the load; finding the files dir can touch the disk
+	private final Properties mValues = new Properties();
+	private boolean mLoaded;
+	private boolean mSaveQueued;
+
+	private final Runnable mSave = new Runnable() {
+		public void run() {
+			Properties snapshot = new Properties();
+			AtomicFile file;
+			synchronized (SettingsStore.this) {
+				snapshot.putAll(mValues);
+				file = mFile;
+				mSaveQueued = false;
+			}
+			write(file, snapshot);
+		}
+	};
+
+	private SettingsStore(Context context) {
+		mContext = context.getApplicationContext();
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, TAG);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		});
+		mExecutor.execute(new Runnable() {
+			public void run() {
+				ensureLoaded();
+			}
+		});
+	}
+
+	/** The store, which begins loading on the first call */
+	static synchronized SettingsStore get(Context context) {
+		if (sInstance == null) {
+			sInstance = new SettingsStore(context);
+		}
+		return sInstance;
+	}
+
+	int getInt(String key, int defValue) {
+		String value = getString(key, null);
+		if (value == null) return defValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			return defValue;
+		}
+	}
+
+	float getFloat(String key, float defValue) {
+		String value = getString(key, null);
+		if (value == null) return defValue;
+		try {
+			return Float.parseFloat(value);
+		} catch (NumberFormatException e) {
+			return defValue;
+		}
+	}
+
+	/** Loads the file here if the background thread hasn't yet */
+	private synchronized String getString(String key, String defValue) {
+		ensureLoaded();
+		return mValues.getProperty(key, defValue);
+	}
+
+	void putInt(String key, int value) {
+		putString(key, Integer.toString(value));
+	}
+
+	void putFloat(String key, float value) {
+		putString(key, Float.toString(value));
+	}
+
+	/** Set the value now; it reaches the disk shortly, with any others set meanwhile */
+	private synchronized void putString(String key, String value) {
+		// Loaded first, so the file can't overwrite it
+		ensureLoaded();
+		if (value.equals(mValues.getProperty(key))) return;
+		mValues.setProperty(key, value);
+		queueSave();
+	}
+
+	/** Guarded by this */
+	private void queueSave() {
+		if (mSaveQueued) return;
+		mSaveQueued = true;
+		mExecutor.execute(mSave);
+	}
+
+	/** Guarded by this. Whichever thread needs the values first reads them in. */
+	private void ensureLoaded() {
+		if (mLoaded) return;
+		mLoaded = true;
+		mFile = new AtomicFile(new File(mContext.getFilesDir(), FILE_NAME));
+		FileInputStream in = null;
+		try {
+			in = mFile.openRead();
+			mValues.load(in);
+		} catch (FileNotFoundException e) {
+			migrateLegacy();
+		} catch (IOException e) {
+			Log.w(TAG, "Could not read settings " + e);
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (IOException e) {
+					// Already have what we need
+				}
+			}
+		}
+	}
+
+	/** Guarded by this. Carry over the mode from before there was a store. */
+	private void migrateLegacy() {
+		SharedPreferences legacy = mContext.getSharedPreferences(LEGACY_PREFS_NAME, Context.MODE_PRIVATE);
+		int mode = legacy.getInt(LEGACY_MODE_KEY, 0);
+		if (mode != 0) {
+			mValues.setProperty(KEY_MODE, Integer.toString(mode));
+			queueSave();
+		}
+	}
+
+	/** Executor thread only */
+	private static void write(AtomicFile file, Properties values) {
+		FileOutputStream out = null;
+		try {
+			out = file.startWrite();
+			values.store(out, null);
+			file.finishWrite(out);
+		} catch (IOException e) {
+			Log.w(TAG, "Could not save settings " + e);
+			if (out != null) file.failWrite(out);
+		}
+	}
+}
@@ -0,0 +1,53 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Flashes the torch at a steady rate, with equal lit and dark halves. The
+ * achieved rate is kept alongside the timing error, to find the fastest rate
+ * a device holds steadily.
+ */
+class StrobeEngine extends TorchSequencer {
+	static final float MIN_FREQUENCY = 1f;
+	static final float MAX_FREQUENCY = 30f;
+
+	private volatile float mFrequency = 10f;
+	private boolean mLit;
+
+	StrobeEngine(TorchBackend torch, MonotonicClock clock) {
+		super(torch, clock, "StrobeThread");
+	}
+
+	/** Flashes per second; takes effect from the next edge */
+	void setFrequency(float hz) {
+		mFrequency = Math.max(MIN_FREQUENCY, Math.min(hz, MAX_FREQUENCY));
+	}
+
+	@Override
+	void rewind() {
+		mLit = false;
+	}
+
+	@Override
+	boolean advance() {
+		mLit = !mLit;
+		return true;
+	}
+
+	@Override
+	boolean isSegmentLit() {
+		return mLit;
+	}
+
+	@Override
+	long getSegmentNanos() {
+		// Half a period per edge
+		return (long) (500000000L / mFrequency);
+	}
+
+	/** Full on-off flashes per second actually achieved, or 0 before there's enough to tell */
+	float getAchievedFrequency() {
+		final long edges = getEdgeCount();
+		final long span = getElapsedNanos();
+		if (edges < 3 || span <= 0) return 0;
+		return (float) ((edges - 1) / 2.0 * 1e9 / span);
+	}
+}
@@ -0,0 +1,64 @@
+package com.scottmain.android.searchlight;
+
+import android.graphics.Typeface;
+import android.support.v4.util.LruCache;
+import android.text.Layout;
+import android.text.StaticLayout;
+import android.text.TextPaint;
+
+/**
+ * Process-wide cache of single-line text layouts for control labels, keyed by
+ * the text and every paint setting that affects its metrics. A control built
+ * again with the same labels (LightSwitch's ON/OFF, say) reuses the layouts
+ * instead of measuring and laying out the text again.
+ *
+ * <p>Each cached layout has its own copy of the paint it was made with, because
+ * a StaticLayout draws with the paint it was built from. Callers set the color
+ * on {@link Layout#getPaint()} right before drawing. UI thread only.</p>
+ */
+final class TextLayoutCache {
+	private static final int MAX_ENTRIES = 32;
+
+	private static final LruCache<String, Layout> sLayouts = new LruCache<String, Layout>(MAX_ENTRIES);
+
+	private TextLayoutCache() {}
+
+	static Layout get(CharSequence text, TextPaint paint) {
+		String key = keyFor(text, paint);
+		Layout layout = sLayouts.get(key);
+		if (layout == null) {
+			TextPaint ownPaint = new TextPaint(paint);
+			ownPaint.density = paint.density;
+			layout = new StaticLayout(text, ownPaint,
+					(int) Math.ceil(Layout.getDesiredWidth(text, ownPaint)),
+					Layout.Alignment.ALIGN_NORMAL, 1.f, 0, true);
+			sLayouts.put(key, layout);
+		}
+		return layout;
+	}
+
+	static int hitCount() {
+		return sLayouts.hitCount();
+	}
+
+	static int missCount() {
+		return sLayouts.missCount();
+	}
+
+	static int evictionCount() {
+		return sLayouts.evictionCount();
+	}
+
+	private static String keyFor(CharSequence text, TextPaint paint) {
+		Typeface typeface = paint.getTypeface();
+		return new StringBuilder()
+			.append(text).append('|')
+			.append(paint.getTextSize()).append('|')
+			.append(paint.density).append('|')
+			.append(paint.getTextScaleX()).append('|')
+			.append(paint.getTextSkewX()).append('|')
+			.append(paint.getFlags()).append('|')
+			.append(typeface == null ? 0 : System.identityHashCode(typeface))
+			.toString();
+	}
+}
@@ -0,0 +1,46 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * Something that can turn the flash LED on and off. SearchLight only talks to
+ * the light through this interface, so the implementation can be chosen at
+ * runtime (and replaced with a fake when there's no camera at all).
+ *
+ * <p>Except for {@link #applyTorch(boolean)}, all methods are called from the
+ * UI thread and must not block on the camera; results are delivered back
+ * through {@link Callback} on the UI thread.</p>
+ */
+interface TorchBackend {
+
+	/** Acquire the hardware. Calls {@link Callback#cameraReady()} once the light can be used. */
+	public void open();
+
+	/** Give the hardware back so other apps can use it. */
+	public void release();
+
+	public void lightOn();
+
+	public void lightOff();
+
+	/**
+	 * Switch the light and return once the hardware has taken the change.
+	 * Unlike the methods above this blocks, so it's only for timing loops
+	 * that run on their own thread.
+	 *
+	 * <p>A timing loop is stopped by interrupting its thread, without waiting
+	 * for it. An interrupted caller's switches are refused, and one already
+	 * under way lands before any command the UI thread gives afterwards, so
+	 * that command decides how the light is left. A stopped loop's last switch
+	 * and its replacement's first take turns.</p>
+	 *
+	 * @return false if the light isn't ready to switch, the change failed, or
+	 *         the calling thread has been interrupted
+	 */
+	public boolean applyTorch(boolean on);
+
+	/* The activity that uses a backend must implement this interface
+	 * in order to hear when the light is usable. */
+	public interface Callback {
+		public void cameraReady();
+		public void cameraNotAvailable();
+	}
+}
@@ -0,0 +1,117 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Carries on/off requests from the UI to the camera thread, which is its only
+ * consumer. At most one command waits at a time: a request that arrives while
+ * one is waiting replaces it, so a burst of taps costs one camera write for
+ * the state the user ended on, instead of a write per tap.
+ *
+ * <p>{@link #submit(boolean)} may be called from any thread and allocates
+ * nothing. The consumer is an Executor rather than a Handler so the queue can
+ * be driven on a plain JVM; {@link CameraThread#getExecutor()} posts to the
+ * camera thread.</p>
+ */
+class TorchCommandQueue {
+
+	/** What the queue runs its commands on */
+	interface Target {
+		/** Camera thread only. Put the light in the requested state. */
+		public void setLight(boolean on);
+	}
+
+	/**
+	 * A waiting command. Until it's sealed it runs whatever was asked for last;
+	 * once a fence has sealed it, it runs the request it was holding then.
+	 */
+	private final class Drain implements Runnable {
+		// Guarded by the queue
+		boolean mSealed;
+		boolean mOn;
+
+		public void run() {
+			boolean on;
+			synchronized (TorchCommandQueue.this) {
+				if (mSealed) {
+					on = mOn;
+				} else {
+					on = mRequested;
+					mScheduled = false;
+				}
+				mExecuted++;
+			}
+			mTarget.setLight(on);
+		}
+	}
+
+	private final Executor mConsumer;
+	private final Target mTarget;
+
+	// Guarded by this
+	private boolean mRequested;
+	private boolean mScheduled;
+	private Drain mDrain = new Drain();
+	private int mSubmitted;
+	private int mCoalesced;
+	private int mExecuted;
+
+	TorchCommandQueue(Executor consumer, Target target) {
+		mConsumer = consumer;
+		mTarget = target;
+	}
+
+	/** Ask for the light on or off; the latest request always wins */
+	void submit(boolean on) {
+		final Drain drain;
+		synchronized (this) {
+			mRequested = on;
+			mSubmitted++;
+			if (mScheduled) {
+				// The waiting command will pick this up instead
+				mCoalesced++;
+				return;
+			}
+			mScheduled = true;
+			drain = mDrain;
+		}
+		mConsumer.execute(drain);
+	}
+
+	/**
+	 * Keep the next request from folding into a command queued before some
+	 * other camera work (an open or a release), so it runs after that work.
+	 * Call it right after posting that work.
+	 *
+	 * <p>A command already waiting keeps the request it has now, and later
+	 * requests go to a fresh one; only then does the queue allocate.</p>
+	 */
+	synchronized void fence() {
+		if (!mScheduled) return;
+		mDrain.mSealed = true;
+		mDrain.mOn = mRequested;
+		mDrain = new Drain();
+		mScheduled = false;
+	}
+
+	/** Requests since the queue was made */
+	synchronized int getSubmittedCount() {
+		return mSubmitted;
+	}
+
+	/** Requests folded into a command that was already waiting */
+	synchronized int getCoalescedCount() {
+		return mCoalesced;
+	}
+
+	/** Commands that reached the camera thread */
+	synchronized int getExecutedCount() {
+		return mExecuted;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "light commands submitted " + mSubmitted + ", coalesced " + mCoalesced
+				+ ", executed " + mExecuted;
+	}
+}
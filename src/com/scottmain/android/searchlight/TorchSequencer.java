@@ -0,0 +1,209 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays a sequence of lit and dark segments on the torch from its own
+ * high-priority thread. Subclasses say what the next segment is; this class
+ * does the timing.
+ *
+ * <p>Every edge is scheduled against an absolute deadline, so a late edge
+ * doesn't push the ones after it back. Switching the torch takes a while
+ * (a Camera.setParameters() round-trip on the legacy path), so each switch
+ * is started early by a running estimate of how long the last ones took.
+ * A segment lit the same as the one before only extends it; the torch isn't
+ * asked again. Nothing is allocated once the loop is running.</p>
+ *
+ * <p>Timing error is kept as running totals that the UI can read at any time.</p>
+ *
+ * <p>{@link #start()} and {@link #stop()} never wait for the sequencer thread,
+ * so the UI thread can call them without waiting on the camera.</p>
+ */
+abstract class TorchSequencer {
+	private static final long SPIN_NANOS = 1000000; // park until this close, then spin
+	private static final int COST_WEIGHT = 8; // 1/8 of each new switch time goes into the estimate
+
+	final TorchBackend mTorch;
+	final MonotonicClock mClock;
+	private final String mName;
+	private volatile Thread mThread;
+	private Thread mLastThread; // guarded by this; running or stopped
+
+	// Written by the sequencer thread, read by anyone
+	private volatile long mEdges;
+	private volatile long mOverruns;
+	private volatile long mFirstEdge;
+	private volatile long mLastEdge;
+	private volatile double mErrorSquaredSum;
+	private volatile long mMaxError;
+	volatile long mCostEstimate; // nanoseconds per switch; 0 until a switch has been timed
+
+	TorchSequencer(TorchBackend torch, MonotonicClock clock, String name) {
+		mTorch = torch;
+		mClock = clock;
+		mName = name;
+	}
+
+	/** Sequencer thread only. Go back to the first segment, before any timing starts. */
+	abstract void rewind();
+
+	/**
+	 * Sequencer thread only. Move on to the next segment.
+	 * @return false if the sequence is over
+	 */
+	abstract boolean advance();
+
+	/** Sequencer thread only. Whether the current segment is lit. */
+	abstract boolean isSegmentLit();
+
+	/** Sequencer thread only. How long the current segment lasts. */
+	abstract long getSegmentNanos();
+
+	boolean isRunning() {
+		return mThread != null;
+	}
+
+	synchronized void start() {
+		if (mThread != null) return;
+		final Thread previous = mLastThread;
+		Thread thread = new Thread(new Runnable() {
+			public void run() {
+				// A stopped thread may still be finishing a switch, and the
+				// segments are its until it's done
+				awaitEnd(previous);
+				play();
+			}
+		}, mName);
+		thread.setPriority(Thread.MAX_PRIORITY);
+		mThread = thread;
+		mLastThread = thread;
+		thread.start();
+	}
+
+	/**
+	 * Stop playing, without waiting: the sequencer thread may be partway
+	 * through a switch that waits on the camera. It's interrupted, and from
+	 * then on the backend refuses its switches (see
+	 * {@link TorchBackend#applyTorch(boolean)}), so the caller's next torch
+	 * command is the one that counts. The light is left for that command.
+	 */
+	synchronized void stop() {
+		Thread thread = mThread;
+		if (thread == null) return;
+		mThread = null;
+		thread.interrupt();
+	}
+
+	/** Sequencer thread only */
+	private static void awaitEnd(Thread thread) {
+		if (thread == null) return;
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Sequencer thread only */
+	private void play() {
+		final Thread self = Thread.currentThread();
+		mEdges = 0;
+		mOverruns = 0;
+		mErrorSquaredSum = 0;
+		mMaxError = 0;
+		rewind();
+		long deadline = mClock.nanoTime();
+		boolean switched = false; // the torch has taken a switch, to showing
+		boolean showing = false;
+		while (mThread == self && advance()) {
+			final boolean lit = isSegmentLit();
+			final boolean change = !switched || lit != showing;
+			waitUntil(self, change ? deadline - mCostEstimate : deadline);
+			if (mThread != self) break;
+
+			long after = deadline;
+			if (change) {
+				final long before = mClock.nanoTime();
+				if (mTorch.applyTorch(lit)) {
+					switched = true;
+					showing = lit;
+				}
+				after = mClock.nanoTime();
+				recordEdge(deadline, before, after);
+			}
+
+			// Counted from the deadline, not from now
+			deadline += getSegmentNanos();
+			if (after > deadline) {
+				// Later than the whole segment; don't try to catch up with a burst
+				mOverruns++;
+				deadline = after;
+			}
+		}
+		if (mThread == self) {
+			// Ran to the end by itself, so turning the light off is still ours to do
+			waitUntil(self, deadline); // let the last segment run its length
+			mTorch.applyTorch(false);
+			mThread = null;
+		}
+	}
+
+	private void recordEdge(long deadline, long before, long after) {
+		final long cost = after - before;
+		// The first switch stands for itself until there are more
+		mCostEstimate = mEdges == 0 ? cost : mCostEstimate + (cost - mCostEstimate) / COST_WEIGHT;
+
+		// The switch has landed by the time applyTorch() returns
+		final long error = after - deadline;
+		mErrorSquaredSum += (double) error * error;
+		mMaxError = Math.max(mMaxError, Math.abs(error));
+		if (mEdges == 0) mFirstEdge = after;
+		mLastEdge = after;
+		mEdges++;
+	}
+
+	private void waitUntil(Thread self, long target) {
+		long remaining;
+		while (mThread == self && (remaining = target - mClock.nanoTime()) > 0) {
+			if (remaining > SPIN_NANOS) {
+				LockSupport.parkNanos(remaining - SPIN_NANOS);
+			}
+		}
+	}
+
+	/** Edges switched since start() */
+	long getEdgeCount() {
+		return mEdges;
+	}
+
+	/** Time from the first edge to the latest one, in nanoseconds */
+	long getElapsedNanos() {
+		return mLastEdge - mFirstEdge;
+	}
+
+	/** RMS distance of each edge from its deadline, in milliseconds */
+	float getJitterMillis() {
+		final long edges = mEdges;
+		if (edges == 0) return 0;
+		return (float) (Math.sqrt(mErrorSquaredSum / edges) / 1e6);
+	}
+
+	/** Worst distance of any edge from its deadline, in milliseconds */
+	float getMaxErrorMillis() {
+		return mMaxError / 1e6f;
+	}
+
+	/** How long switching the torch currently takes, in milliseconds */
+	float getSwitchMillis() {
+		return mCostEstimate / 1e6f;
+	}
+
+	/** Edges that came later than the whole segment before them */
+	long getOverruns() {
+		return mOverruns;
+	}
+}
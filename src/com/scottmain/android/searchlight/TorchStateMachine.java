@@ -0,0 +1,239 @@
+package com.scottmain.android.searchlight;
+
+/**
+ * The legacy camera's lifecycle as one state machine, so every hardware call
+ * happens once, on a defined transition, instead of wherever a combination of
+ * flags happened to allow it.
+ *
+ * <pre>
+ * CLOSED --open--> OPENED --surface--> ATTACHED --size--> PREVIEWING
+ *    ^                                                        |
+ *    +------------------- release / retain ------------------+
+ *
+ * CLOSED --open, handed over mid-preview--> PREVIEWING
+ * </pre>
+ *
+ * <p>The camera is wanted once it's asked for with {@link #open()} or a
+ * surface appears, and the machine then moves as far along as the surface
+ * allows. The torch can only be switched while PREVIEWING; a light asked for
+ * before then comes on as the preview starts.</p>
+ *
+ * <p>Pure Java: all hardware goes through {@link CameraOps}, so a fake can
+ * replay lifecycle events and check which calls were made. Camera thread only,
+ * except for {@link #setActive(boolean)} and {@link #getState()}.</p>
+ */
+class TorchStateMachine {
+	static final int CLOSED = 0;
+	static final int OPENED = 1; // camera held, no surface yet
+	static final int ATTACHED = 2; // camera pointed at the surface, waiting for its size
+	static final int PREVIEWING = 3; // preview running; the torch works
+
+	/** The hardware calls the machine makes. Camera thread only. */
+	interface CameraOps {
+		/**
+		 * Open the camera, or take one already held.
+		 * @return CLOSED if it's not available, OPENED, or PREVIEWING if it was
+		 *         handed over with its preview still running to a target of its own
+		 */
+		public int open();
+		/** @return false if the camera can't use the surface */
+		public boolean attachSurface();
+		/** Whether the preview is sized to the surface, rather than the leanest the camera runs */
+		public boolean isSizedToSurface();
+		/** Whether the preview goes to a target of its own, so it can outlive the surface */
+		public boolean isOffscreen();
+		/** Set the preview size and display orientation for the surface */
+		public void configure(int width, int height, int rotation);
+		/** Set the display orientation of a running preview */
+		public void setOrientation(int rotation);
+		public void startPreview();
+		/** Stop the preview; the flash mode has to be set again after a restart */
+		public void stopPreview();
+		public void setTorch(boolean on);
+		public void release();
+		/**
+		 * Hand the open camera to the next owner instead of releasing it.
+		 * @param previewing the preview, and so the light, are still running
+		 */
+		public void retain(boolean previewing);
+		public void notifyReady();
+		public void notifyNotAvailable();
+	}
+
+	private final CameraOps mOps;
+	private volatile int mState = CLOSED;
+	private volatile boolean mActive = true;
+	private boolean mWanted;
+	private boolean mHasSurface;
+	private int mWidth; // 0 until the surface has a size
+	private int mHeight;
+	private int mRotation = -1; // -1 until the surface has a size
+	private boolean mWantLight;
+
+	TorchStateMachine(CameraOps ops) {
+		mOps = ops;
+	}
+
+	int getState() {
+		return mState;
+	}
+
+	/**
+	 * Only the active backend may hold the camera; an inactive machine doesn't
+	 * open it when a surface appears. Any thread.
+	 */
+	void setActive(boolean active) {
+		mActive = active;
+	}
+
+	/** Get the camera and go as far towards a preview as the surface allows */
+	void open() {
+		mWanted = true;
+		advance();
+	}
+
+	/** Give the camera back; the light goes out with it */
+	void release() {
+		mWanted = false;
+		mWantLight = false;
+		if (mState == CLOSED) return;
+		stopPreview();
+		mOps.release();
+		mState = CLOSED;
+	}
+
+	/**
+	 * Keep the camera open for the next machine to take. A preview that doesn't
+	 * need the surface keeps running, so the light doesn't even blink.
+	 */
+	void retain() {
+		mWanted = false;
+		if (mState == CLOSED) return;
+		final boolean keepPreview = mState == PREVIEWING && mOps.isOffscreen();
+		if (!keepPreview) stopPreview();
+		mOps.retain(keepPreview);
+		mState = CLOSED;
+	}
+
+	void surfaceCreated() {
+		mHasSurface = true;
+		mWanted = true;
+		advance();
+	}
+
+	/** @param rotation the display rotation, as a Surface.ROTATION_ constant */
+	void surfaceChanged(int width, int height, int rotation) {
+		if (width == mWidth && height == mHeight && rotation == mRotation) return;
+		final boolean rotated = rotation != mRotation;
+		mWidth = width;
+		mHeight = height;
+		mRotation = rotation;
+		if (mState != PREVIEWING) {
+			advance();
+		} else if (mOps.isSizedToSurface()) {
+			// The preview size can only change while stopped
+			mOps.stopPreview();
+			mOps.configure(width, height, rotation);
+			mOps.startPreview();
+			if (mWantLight) mOps.setTorch(true);
+		} else if (rotated) {
+			// A lean preview is the same size whatever the surface's
+			mOps.setOrientation(rotation);
+		}
+	}
+
+	/**
+	 * The preview should go to a different target or at a different size (the
+	 * viewfinder came or went), so attach and configure it again.
+	 *
+	 * <p>A preview sized to the surface waits in ATTACHED for the surface's new
+	 * size, which the mode switch always brings, so it only starts once. A lean
+	 * preview starts again straight away; its size doesn't depend on the
+	 * surface's, so the resize that follows doesn't restart it.</p>
+	 */
+	void retarget() {
+		if (mState < ATTACHED) return;
+		stopPreview();
+		mState = OPENED;
+		if (mOps.isSizedToSurface()) {
+			mWidth = 0;
+			mHeight = 0;
+		}
+		advance();
+	}
+
+	/** The surface goes away when this returns; keep the camera only if it's to be handed over */
+	void surfaceDestroyed(boolean retain) {
+		if (retain) {
+			retain();
+		} else {
+			release();
+		}
+		mHasSurface = false;
+		mWidth = 0;
+		mHeight = 0;
+		mRotation = -1;
+	}
+
+	/** Ask for the light; if the preview isn't running yet, it comes on when it starts */
+	void setLight(boolean on) {
+		mWantLight = on;
+		if (mState == PREVIEWING) {
+			mOps.setTorch(on);
+		} else if (on && mState == CLOSED) {
+			open();
+		}
+	}
+
+	/**
+	 * Switch the torch now, for timing loops; no light is remembered for later.
+	 * @return false if the preview isn't running
+	 */
+	boolean applyTorch(boolean on) {
+		if (mState != PREVIEWING) return false;
+		mOps.setTorch(on);
+		return true;
+	}
+
+	private void advance() {
+		if (!mActive || !mWanted) return;
+		if (mState == CLOSED) {
+			final int opened = mOps.open();
+			if (opened == CLOSED) {
+				mWanted = false;
+				mOps.notifyNotAvailable();
+				return;
+			}
+			mState = opened;
+			if (opened == PREVIEWING) {
+				// Handed over mid-preview, with the light as the last owner left it
+				if (mRotation >= 0) mOps.setOrientation(mRotation);
+				if (mWantLight) mOps.setTorch(true);
+				mOps.notifyReady();
+				return;
+			}
+		}
+		if (mState == OPENED && mHasSurface) {
+			if (!mOps.attachSurface()) {
+				mOps.release();
+				mState = CLOSED;
+				mWanted = false;
+				return;
+			}
+			mState = ATTACHED;
+		}
+		if (mState == ATTACHED && mWidth > 0) {
+			mOps.configure(mWidth, mHeight, mRotation);
+			mOps.startPreview();
+			mState = PREVIEWING;
+			if (mWantLight) mOps.setTorch(true);
+			mOps.notifyReady();
+		}
+	}
+
+	private void stopPreview() {
+		if (mState == PREVIEWING) {
+			mOps.stopPreview();
+		}
+	}
+}
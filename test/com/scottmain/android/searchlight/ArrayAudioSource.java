@@ -0,0 +1,87 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Plays samples from an array as fast as they're read, moving a fake clock on
+ * by the time they'd have taken to record, so a pulse sees the sound's own
+ * timing without the test waiting for it.
+ */
+class ArrayAudioSource implements AudioSource {
+	private final short[] mSamples;
+	private final int mRate;
+	private final FakeClock mClock;
+	private boolean mStartFails;
+	private boolean mLooping;
+	private int mEndResult;
+	private RuntimeException mEndFailure;
+	private int mPosition;
+	private long mStartNanos;
+	private final CountDownLatch mStopped = new CountDownLatch(1);
+
+	ArrayAudioSource(short[] samples, int rate, FakeClock clock) {
+		mSamples = samples;
+		mRate = rate;
+		mClock = clock;
+	}
+
+	/** start() fails, like a microphone another app has */
+	void setStartFails() {
+		mStartFails = true;
+	}
+
+	/** Start again from the first sample at the end, so the source never ends */
+	void setLooping() {
+		mLooping = true;
+	}
+
+	/** What read() returns once the samples run out: 0 to end, or an error code */
+	void setEndResult(int result) {
+		mEndResult = result;
+	}
+
+	public int getSampleRate() {
+		return mRate;
+	}
+
+	public boolean start() {
+		mStartNanos = mClock.nanoTime();
+		return !mStartFails;
+	}
+
+	/** read() throws this once the samples run out, like a microphone taken away mid-read */
+	void setEndFailure(RuntimeException failure) {
+		mEndFailure = failure;
+	}
+
+	public int read(short[] buffer, int offset, int length) {
+		if (mPosition == mSamples.length) {
+			if (mEndFailure != null) throw mEndFailure;
+			if (!mLooping) return mEndResult;
+			mPosition = 0;
+		}
+		final int count = Math.min(length, mSamples.length - mPosition);
+		System.arraycopy(mSamples, mPosition, buffer, offset, count);
+		mPosition += count;
+		mClock.advanceNanos(count * 1000000000L / mRate);
+		return count;
+	}
+
+	public long getCaptureNanos(long frame) {
+		return mStartNanos + frame * 1000000000L / mRate;
+	}
+
+	public void stop() {
+		mStopped.countDown();
+	}
+
+	boolean isStopped() {
+		return mStopped.getCount() == 0;
+	}
+
+	/** @return false if stop() wasn't called in time */
+	boolean awaitStop(long millis) throws InterruptedException {
+		return mStopped.await(millis, TimeUnit.MILLISECONDS);
+	}
+}
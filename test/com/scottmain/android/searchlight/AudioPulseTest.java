@@ -0,0 +1,162 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class AudioPulseTest {
+	private static final int RATE = 16000;
+
+	private FakeClock mClock;
+	private FakeTorchBackend mTorch;
+	private final CountDownLatch mEnded = new CountDownLatch(1);
+	private int mWhy;
+	private int mResult;
+
+	private final AudioPulse.Listener mListener = new AudioPulse.Listener() {
+		public void onPulseEnded(AudioPulse pulse, int why, int result) {
+			mWhy = why;
+			mResult = result;
+			mEnded.countDown();
+		}
+	};
+
+	@Before
+	public void setUp() {
+		mClock = new FakeClock();
+		mTorch = new FakeTorchBackend(mClock, 1024);
+	}
+
+	/** Tone bursts over quiet noise, beatsPerSecond of them, for seconds */
+	private static short[] beats(float beatsPerSecond, int seconds, boolean clicks) {
+		final Random noise = new Random(2);
+		final short[] pcm = new short[RATE * seconds];
+		final int period = (int) (RATE / beatsPerSecond);
+		for (int i = 0; i < pcm.length; i++) {
+			final double t = (i % period) / (double) RATE;
+			final double amp = clicks
+					? (t < 0.005 ? 12000 : 0) // 5 ms and gone
+					: (t < 0.1 ? 12000 * Math.exp(-t * 30) : 0); // a drum's decay
+			pcm[i] = (short) (amp * Math.sin(i * 0.3) + noise.nextGaussian() * 100);
+		}
+		return pcm;
+	}
+
+	private static short[] beats(float beatsPerSecond, int seconds) {
+		return beats(beatsPerSecond, seconds, false);
+	}
+
+	/** Run the pulse until its source ends */
+	private AudioPulse play(ArrayAudioSource source) throws InterruptedException {
+		AudioPulse pulse = new AudioPulse(mTorch, source, mClock, mListener);
+		pulse.start();
+		assertTrue("the pulse didn't end", mEnded.await(10, TimeUnit.SECONDS));
+		assertFalse(pulse.isRunning());
+		return pulse;
+	}
+
+	@Test
+	public void eachBeatLightsTheTorch() throws Exception {
+		ArrayAudioSource source = new ArrayAudioSource(beats(2, 4), RATE, mClock);
+		AudioPulse pulse = play(source);
+
+		assertEquals(8, pulse.getOnsetCount());
+		final int switches = mTorch.getSwitchCount();
+		int lit = 0;
+		for (int i = 0; i < switches - 1; i++) {
+			assertEquals("switch " + i, i % 2 == 0, mTorch.getState(i));
+			if (mTorch.getState(i)) lit++;
+		}
+		assertEquals(8, lit);
+		assertFalse(mTorch.getState(switches - 1));
+		// Within a block or so of the beat, by the sound's own clock
+		assertTrue(pulse.toString(), pulse.getLatencyMillis(100) <= 2 * 8 + 1);
+
+		assertEquals(AudioPulse.SOURCE_ENDED, mWhy);
+		assertEquals(0, mResult);
+		assertNull(pulse.getFailure());
+		assertTrue(source.isStopped());
+	}
+
+	@Test
+	public void switchesAreRateLimited() throws Exception {
+		// Clicks 62 ms apart: the light would go on and off again within the limit
+		play(new ArrayAudioSource(beats(16, 2, true), RATE, mClock));
+		final int switches = mTorch.getSwitchCount();
+		assertTrue("only " + switches + " switches", switches > 10);
+		for (int i = 1; i < switches - 1; i++) {
+			final long gap = mTorch.getTime(i) - mTorch.getTime(i - 1);
+			assertTrue("switch " + i + " after " + gap / 1000000 + " ms", gap >= AudioPulse.MIN_SWITCH_NANOS);
+		}
+	}
+
+	@Test
+	public void sourceThatWontStartIsReported() throws Exception {
+		ArrayAudioSource source = new ArrayAudioSource(beats(2, 1), RATE, mClock);
+		source.setStartFails();
+		play(source);
+		assertEquals(AudioPulse.START_FAILED, mWhy);
+		assertEquals(0, mTorch.getSwitchCount());
+	}
+
+	@Test
+	public void readErrorIsReportedWithTheLightOff() throws Exception {
+		ArrayAudioSource source = new ArrayAudioSource(beats(2, 1), RATE, mClock);
+		source.setEndResult(-3); // AudioRecord.ERROR_INVALID_OPERATION
+		play(source);
+		assertEquals(AudioPulse.SOURCE_ENDED, mWhy);
+		assertEquals(-3, mResult);
+		assertFalse(mTorch.getState(mTorch.getSwitchCount() - 1));
+		assertTrue(source.isStopped());
+	}
+
+	@Test
+	public void readThatThrowsIsReportedWithTheLightOff() throws Exception {
+		ArrayAudioSource source = new ArrayAudioSource(beats(2, 1), RATE, mClock);
+		IllegalStateException failure = new IllegalStateException("released");
+		source.setEndFailure(failure);
+		AudioPulse pulse = play(source);
+		assertEquals(AudioPulse.SOURCE_ENDED, mWhy);
+		assertEquals(0, mResult);
+		assertSame(failure, pulse.getFailure());
+		assertFalse(mTorch.getState(mTorch.getSwitchCount() - 1));
+		assertTrue(source.isStopped());
+	}
+
+	@Test
+	public void stopIsNotReported() throws Exception {
+		ArrayAudioSource source = new ArrayAudioSource(beats(2, 1), RATE, mClock);
+		source.setLooping();
+		AudioPulse pulse = new AudioPulse(mTorch, source, mClock, mListener);
+		pulse.start();
+		Thread.sleep(50);
+		pulse.stop();
+		assertFalse(pulse.isRunning());
+		// The thread lets go of the source by itself, without stop() waiting for it
+		assertTrue(source.awaitStop(1000));
+		assertFalse(mEnded.await(100, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void nothingLandsAfterTheNextCommand() throws Exception {
+		ArrayAudioSource source = new ArrayAudioSource(beats(8, 1), RATE, mClock);
+		source.setLooping();
+		AudioPulse pulse = new AudioPulse(mTorch, source, mClock, mListener);
+		pulse.start();
+		Thread.sleep(50);
+		pulse.stop();
+		mTorch.lightOff(); // what SearchLight does next
+		final int switches = mTorch.getSwitchCount();
+		assertTrue(source.awaitStop(1000));
+		assertEquals(switches, mTorch.getSwitchCount());
+	}
+}
@@ -0,0 +1,119 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Feeds the analyzer frame fixtures: preview-sized Y planes of a given mean
+ * brightness, with seeded sensor noise and a little vignetting, so every run
+ * sees the same frames.
+ */
+public class AutoTorchTest {
+	private static final int WIDTH = 640;
+	private static final int HEIGHT = 480;
+
+	private final List<Boolean> mDecisions = new ArrayList<Boolean>();
+	private AutoTorch mAutoTorch;
+	private Random mNoise;
+
+	@Before
+	public void setUp() {
+		mAutoTorch = new AutoTorch(new AutoTorch.Listener() {
+			public void onAutoTorch(boolean on) {
+				mDecisions.add(on);
+			}
+		});
+		mNoise = new Random(1);
+	}
+
+	/** An NV21 frame whose Y plane averages about luma */
+	private byte[] frame(int width, int height, int luma) {
+		byte[] data = new byte[width * height * 3 / 2];
+		final int cx = width / 2;
+		final int cy = height / 2;
+		final long corner = (long) cx * cx + (long) cy * cy;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final long r = (long) (x - cx) * (x - cx) + (long) (y - cy) * (y - cy);
+				// Up to 10% darker towards the corners, and +-4 of noise
+				int value = (int) (luma * (1.05 - 0.1 * r / corner)) + mNoise.nextInt(9) - 4;
+				data[y * width + x] = (byte) Math.max(0, Math.min(value, 255));
+			}
+		}
+		for (int i = width * height; i < data.length; i++) {
+			data[i] = (byte) 128; // neutral chroma
+		}
+		return data;
+	}
+
+	/** Show the analyzer a scene for a number of frames */
+	private void play(int luma, int frames) {
+		for (int i = 0; i < frames; i++) {
+			mAutoTorch.onFrame(frame(WIDTH, HEIGHT, luma), WIDTH, HEIGHT, 17 /* NV21 */, 0);
+		}
+	}
+
+	@Test
+	public void meanLumaOfFixtures() {
+		final int[][] sizes = { {176, 144}, {640, 480}, {1280, 720}, {1920, 1080}, {31, 17} };
+		for (int[] size : sizes) {
+			for (int luma = 20; luma <= 220; luma += 100) {
+				final int mean = AutoTorch.meanLuma(frame(size[0], size[1], luma), size[0], size[1]);
+				assertTrue(size[0] + "x" + size[1] + " at " + luma + " read " + mean,
+						Math.abs(mean - luma) <= luma / 20 + 3);
+			}
+		}
+	}
+
+	@Test
+	public void darkRoomTurnsTheTorchOnOnceItHolds() {
+		play(20, AutoTorch.DWELL_FRAMES - 1);
+		assertEquals(0, mDecisions.size());
+		play(20, 1);
+		assertEquals("[true]", mDecisions.toString());
+		// One decision until the torch acts on it
+		play(20, 20);
+		assertEquals(1, mDecisions.size());
+	}
+
+	@Test
+	public void flickerShorterThanTheDwellIsIgnored() {
+		for (int i = 0; i < 10; i++) {
+			play(20, AutoTorch.DWELL_FRAMES - 1);
+			play(150, 1);
+		}
+		assertEquals(0, mDecisions.size());
+	}
+
+	@Test
+	public void torchLightDoesNotTurnItselfOff() {
+		play(20, AutoTorch.DWELL_FRAMES);
+		mAutoTorch.setLit(true);
+		// The torch lights the scene up to 120; that's its baseline, not daylight
+		play(120, AutoTorch.SETTLE_FRAMES + 30);
+		assertEquals("[true]", mDecisions.toString());
+		// The room lights come on, well above what the torch alone gives
+		play(120 + AutoTorch.BRIGHT_MARGIN + 40, 30);
+		assertEquals("[true, false]", mDecisions.toString());
+	}
+
+	@Test
+	public void decisionNeverActedOnIsForgottenOnReset() {
+		play(20, AutoTorch.DWELL_FRAMES);
+		assertEquals(1, mDecisions.size());
+		// The mode changed before the decision arrived, so the torch never switched
+		play(20, 50);
+		assertEquals(1, mDecisions.size());
+
+		mAutoTorch.reset();
+		play(20, AutoTorch.SETTLE_FRAMES + AutoTorch.DWELL_FRAMES);
+		assertEquals("[true, true]", mDecisions.toString());
+	}
+}
@@ -0,0 +1,79 @@
+package com.scottmain.android.searchlight;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** Camera hardware calls, written down instead of made, for replaying lifecycles */
+class FakeCameraOps implements TorchStateMachine.CameraOps {
+	private final List<String> mCalls = new ArrayList<String>();
+
+	int mOpenResult = TorchStateMachine.OPENED;
+	boolean mAttachResult = true;
+	boolean mSizedToSurface;
+	boolean mOffscreen;
+
+	/** The calls made since the last time, comma separated, and forget them */
+	String takeCalls() {
+		final StringBuilder calls = new StringBuilder();
+		for (String call : mCalls) {
+			if (calls.length() > 0) calls.append(", ");
+			calls.append(call);
+		}
+		mCalls.clear();
+		return calls.toString();
+	}
+
+	public int open() {
+		mCalls.add("open");
+		return mOpenResult;
+	}
+
+	public boolean attachSurface() {
+		mCalls.add("attach");
+		return mAttachResult;
+	}
+
+	public boolean isSizedToSurface() {
+		return mSizedToSurface;
+	}
+
+	public boolean isOffscreen() {
+		return mOffscreen;
+	}
+
+	public void configure(int width, int height, int rotation) {
+		mCalls.add("configure " + width + "x" + height + " r" + rotation);
+	}
+
+	public void setOrientation(int rotation) {
+		mCalls.add("orientation r" + rotation);
+	}
+
+	public void startPreview() {
+		mCalls.add("start");
+	}
+
+	public void stopPreview() {
+		mCalls.add("stop");
+	}
+
+	public void setTorch(boolean on) {
+		mCalls.add(on ? "torch on" : "torch off");
+	}
+
+	public void release() {
+		mCalls.add("release");
+	}
+
+	public void retain(boolean previewing) {
+		mCalls.add(previewing ? "retain previewing" : "retain");
+	}
+
+	public void notifyReady() {
+		mCalls.add("ready");
+	}
+
+	public void notifyNotAvailable() {
+		mCalls.add("not available");
+	}
+}
@@ -0,0 +1,18 @@
+package com.scottmain.android.searchlight;
+
+/** A clock that only moves when a test moves it */
+class FakeClock implements MonotonicClock {
+	private volatile long mNow;
+
+	public long nanoTime() {
+		return mNow;
+	}
+
+	void advanceNanos(long nanos) {
+		mNow += nanos;
+	}
+
+	void advanceMillis(long millis) {
+		advanceNanos(millis * 1000000);
+	}
+}
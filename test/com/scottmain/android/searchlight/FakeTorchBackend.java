@@ -0,0 +1,103 @@
+package com.scottmain.android.searchlight;
+
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * A torch with no hardware behind it, for tests. It counts the UI-thread
+ * calls, and keeps every {@link #applyTorch(boolean)} switch with the time it
+ * was made, in arrays sized up front so a timing thread doesn't allocate.
+ *
+ * <p>Like the real backends, it refuses an interrupted thread's switches, and
+ * a UI-thread call waits for a switch under way.</p>
+ */
+class FakeTorchBackend implements TorchBackend {
+	private final MonotonicClock mClock;
+	private final boolean[] mStates;
+	private final long[] mTimes;
+	private volatile int mSwitches;
+	private volatile boolean mReady = true;
+	private CountDownLatch mHold; // set before the timing thread starts
+
+	int mOpens;
+	int mReleases;
+	int mLightOns;
+	int mLightOffs;
+
+	/** @param capacity switches to keep; later ones are counted but not kept */
+	FakeTorchBackend(MonotonicClock clock, int capacity) {
+		mClock = clock;
+		mStates = new boolean[capacity];
+		mTimes = new long[capacity];
+	}
+
+	/** While not ready, applyTorch() refuses the way a torch without its camera does */
+	void setReady(boolean ready) {
+		mReady = ready;
+	}
+
+	/** Switches wait for {@link #releaseSwitches()}, like a camera that's slow to answer */
+	void holdSwitches() {
+		mHold = new CountDownLatch(1);
+	}
+
+	void releaseSwitches() {
+		mHold.countDown();
+	}
+
+	public synchronized void open() {
+		mOpens++;
+	}
+
+	public synchronized void release() {
+		mReleases++;
+	}
+
+	public synchronized void lightOn() {
+		mLightOns++;
+	}
+
+	public synchronized void lightOff() {
+		mLightOffs++;
+	}
+
+	public synchronized boolean applyTorch(boolean on) {
+		if (mHold != null) awaitHold();
+		// Checked once the switch has its turn, as PreviewSurface does on the camera thread
+		if (!mReady || Thread.currentThread().isInterrupted()) return false;
+		final int i = mSwitches;
+		if (i < mStates.length) {
+			mStates[i] = on;
+			mTimes[i] = mClock.nanoTime();
+		}
+		mSwitches = i + 1;
+		return true;
+	}
+
+	/** Ignores interrupts, as a camera call does */
+	private void awaitHold() {
+		boolean interrupted = false;
+		while (true) {
+			try {
+				mHold.await();
+				break;
+			} catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted) Thread.currentThread().interrupt();
+	}
+
+	/** Switches taken by applyTorch(), kept or not */
+	int getSwitchCount() {
+		return mSwitches;
+	}
+
+	boolean getState(int i) {
+		return mStates[i];
+	}
+
+	/** When switch i was made, by the clock given to the constructor */
+	long getTime(int i) {
+		return mTimes[i];
+	}
+}
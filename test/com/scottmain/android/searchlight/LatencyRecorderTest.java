@@ -0,0 +1,93 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class LatencyRecorderTest {
+	private static final long MS = 1000000;
+
+	private FakeClock mClock;
+	private LatencyRecorder mRecorder;
+
+	@Before
+	public void setUp() {
+		mClock = new FakeClock();
+		mClock.advanceMillis(1000); // the origin needn't be zero
+		mRecorder = new LatencyRecorder(mClock);
+	}
+
+	/** One launch that takes torchMillis to light, in two steps */
+	private void launch(long openMillis, long torchMillis) {
+		mRecorder.begin();
+		mRecorder.mark(LatencyRecorder.ON_CREATE);
+		mClock.advanceMillis(openMillis);
+		mRecorder.mark(LatencyRecorder.CAMERA_OPENED);
+		mClock.advanceMillis(torchMillis - openMillis);
+		mRecorder.mark(LatencyRecorder.TORCH_ON);
+	}
+
+	@Test
+	public void firstLaunchIsTimedFromCreation() {
+		mClock.advanceMillis(40); // process start to onCreate
+		launch(100, 250);
+		assertEquals(40 * MS, mRecorder.getPercentile(LatencyRecorder.ON_CREATE, 50));
+		assertEquals(290 * MS, mRecorder.getPercentile(LatencyRecorder.TORCH_ON, 50));
+	}
+
+	@Test
+	public void laterLaunchesAreTimedFromBegin() {
+		launch(100, 250);
+		mClock.advanceMillis(60000);
+		launch(10, 20);
+		assertEquals(2, mRecorder.getSampleCount(LatencyRecorder.TORCH_ON));
+		assertEquals(20 * MS, mRecorder.getPercentile(LatencyRecorder.TORCH_ON, 0));
+		assertEquals(0, mRecorder.getPercentile(LatencyRecorder.ON_CREATE, 0));
+	}
+
+	@Test
+	public void onlyTheFirstMarkPerLaunchCounts() {
+		mRecorder.begin();
+		mClock.advanceMillis(30);
+		mRecorder.mark(LatencyRecorder.TORCH_ON);
+		mClock.advanceMillis(500);
+		mRecorder.mark(LatencyRecorder.TORCH_ON); // the light toggled again later
+		assertEquals(1, mRecorder.getSampleCount(LatencyRecorder.TORCH_ON));
+		assertEquals(30 * MS, mRecorder.getPercentile(LatencyRecorder.TORCH_ON, 99));
+	}
+
+	@Test
+	public void percentilesAreNearestRank() {
+		mRecorder.begin(); // so every launch below is timed from its own begin()
+		for (int i = 1; i <= 20; i++) {
+			mClock.advanceMillis(1000);
+			launch(i, i * 10);
+		}
+		assertEquals(100 * MS, mRecorder.getPercentile(LatencyRecorder.TORCH_ON, 50));
+		assertEquals(190 * MS, mRecorder.getPercentile(LatencyRecorder.TORCH_ON, 95));
+		assertEquals(200 * MS, mRecorder.getPercentile(LatencyRecorder.TORCH_ON, 99));
+	}
+
+	@Test
+	public void ringKeepsTheLatestLaunches() {
+		for (int i = 0; i < 100; i++) {
+			mClock.advanceMillis(1000);
+			launch(1, i < 36 ? 1000 : 50);
+		}
+		// The 36 slow launches came first, and have all been overwritten
+		assertEquals(64, mRecorder.getSampleCount(LatencyRecorder.TORCH_ON));
+		assertEquals(50 * MS, mRecorder.getPercentile(LatencyRecorder.TORCH_ON, 100));
+	}
+
+	@Test
+	public void phaseWithoutSamples() {
+		launch(100, 250);
+		assertEquals(0, mRecorder.getSampleCount(LatencyRecorder.SURFACE_CHANGED));
+		assertEquals(-1, mRecorder.getPercentile(LatencyRecorder.SURFACE_CHANGED, 50));
+		String report = mRecorder.report();
+		assertTrue(report, report.contains("torchOn p50=250.0 p95=250.0 p99=250.0 ms (n=1)"));
+		assertTrue(report, !report.contains("surfaceChanged"));
+	}
+}
@@ -0,0 +1,105 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Steps the player through its segments the way the sequencer thread does,
+ * without the thread, so every segment is checked exactly against its table.
+ * How TorchSequencer times the edges is its own business.
+ */
+public class MorsePlayerTest {
+	private static final float WPM = 30f; // the fastest the player goes: 40 ms units
+
+	private MorsePlayer mPlayer;
+
+	@Before
+	public void setUp() {
+		mPlayer = new MorsePlayer(new FakeTorchBackend(new FakeClock(), 0), new FakeClock());
+		mPlayer.setWordsPerMinute(WPM);
+	}
+
+	/** The next table.length segments are the table's, lit first, at the given speed */
+	private void assertPlays(int[] table, float wpm) {
+		final long unit = Morse.unitNanos(wpm);
+		for (int i = 0; i < table.length; i++) {
+			assertTrue("ended at segment " + i, mPlayer.advance());
+			assertEquals("segment " + i, i % 2 == 0, mPlayer.isSegmentLit());
+			assertEquals("segment " + i, table[i] * unit, mPlayer.getSegmentNanos());
+		}
+	}
+
+	@Test
+	public void segmentsFollowTheTableOnALoop() {
+		final int[] table = Morse.compile("AN"); // .- -. : 20 units
+		assertEquals(8, table.length);
+		mPlayer.setTable(table);
+		mPlayer.rewind();
+		for (int repetition = 0; repetition < 3; repetition++) {
+			assertPlays(table, WPM);
+		}
+	}
+
+	@Test
+	public void textWithNothingToSendPlaysSos() {
+		final int[] sos = Morse.compileCode(Morse.SOS_PROSIGN);
+		final String[] unsendable = { "###", "   ", "\u041f\u0440\u0438\u0432\u0435\u0442", "\u4f60\u597d" }; // Cyrillic, CJK
+		for (String text : unsendable) {
+			final int[] table = Morse.compile(text);
+			assertEquals(text, 0, table.length);
+			mPlayer.setTable(table);
+			mPlayer.rewind();
+			assertPlays(sos, WPM);
+			assertPlays(sos, WPM);
+		}
+	}
+
+	@Test
+	public void playsSosUntilGivenATable() {
+		mPlayer.rewind();
+		assertPlays(Morse.compileCode(Morse.SOS_PROSIGN), WPM);
+	}
+
+	@Test
+	public void newTableWaitsForTheEndOfTheRepetition() {
+		final int[] first = Morse.compile("E");
+		final int[] second = Morse.compile("T");
+		mPlayer.setTable(first);
+		mPlayer.rewind();
+		assertTrue(mPlayer.advance());
+		mPlayer.setTable(second);
+		// The rest of the first message goes out before the new one starts
+		for (int i = 1; i < first.length; i++) {
+			assertTrue(mPlayer.advance());
+			assertEquals(first[i] * Morse.unitNanos(WPM), mPlayer.getSegmentNanos());
+		}
+		assertPlays(second, WPM);
+		assertPlays(second, WPM);
+	}
+
+	@Test
+	public void speedAppliesFromTheNextSegment() {
+		final int[] table = Morse.compile("S");
+		mPlayer.setTable(table);
+		mPlayer.rewind();
+		assertTrue(mPlayer.advance());
+		assertEquals(table[0] * Morse.unitNanos(WPM), mPlayer.getSegmentNanos());
+		mPlayer.setWordsPerMinute(10);
+		assertTrue(mPlayer.advance());
+		assertEquals(table[1] * Morse.unitNanos(10), mPlayer.getSegmentNanos());
+	}
+
+	@Test
+	public void speedIsClamped() {
+		final int[] table = Morse.compile("E");
+		mPlayer.setTable(table);
+		mPlayer.rewind();
+		mPlayer.setWordsPerMinute(1000);
+		assertPlays(table, MorsePlayer.MAX_WPM);
+		mPlayer.setWordsPerMinute(0);
+		assertPlays(table, MorsePlayer.MIN_WPM);
+	}
+}
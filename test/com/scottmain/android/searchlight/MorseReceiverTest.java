@@ -0,0 +1,114 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Sends Morse to the receiver as a camera would see it: a level per frame
+ * at 30 frames a second, with seeded noise, a second of darkness before the
+ * message and three after it.
+ */
+public class MorseReceiverTest {
+	private static final String MESSAGE = "SOS HELLO WORLD 73";
+	private static final String RECEIVED = MESSAGE + " "; // the closing gap ends a word
+	private static final long FRAME_NANOS = 33333333L;
+	private static final int DARK = 30;
+	private static final int LIT = 200;
+
+	private MorseReceiver mReceiver;
+	private String mText;
+	private Random mNoise;
+
+	@Before
+	public void setUp() {
+		mReceiver = new MorseReceiver(new MorseReceiver.Listener() {
+			public void onMorseText(String text) {
+				mText = text;
+			}
+		});
+		mNoise = new Random(1);
+	}
+
+	/** What the light in the middle of the frame does; one level per frame */
+	private interface Camera {
+		void frame(boolean lit, long nanos);
+	}
+
+	private void send(String message, float wpm, Camera camera) {
+		final int[] table = Morse.compile(message);
+		final long unit = Morse.unitNanos(wpm);
+		long t = 0;
+		for (; t < 1000000000L; t += FRAME_NANOS) camera.frame(false, t);
+		long end = t;
+		for (int i = 0; i < table.length; i++) {
+			end += table[i] * unit;
+			for (; t < end; t += FRAME_NANOS) camera.frame(i % 2 == 0, t);
+		}
+		for (end = t + 3000000000L; t < end; t += FRAME_NANOS) camera.frame(false, t);
+	}
+
+	private void sendLevels(String message, float wpm) {
+		send(message, wpm, new Camera() {
+			public void frame(boolean lit, long nanos) {
+				mReceiver.onLevel((lit ? LIT : DARK) + mNoise.nextInt(8), nanos);
+			}
+		});
+	}
+
+	@Test
+	public void decodesAtSlowMediumAndFastSpeeds() {
+		for (float wpm : new float[] { 6, 10, 15 }) {
+			mReceiver.reset();
+			sendLevels(MESSAGE, wpm);
+			assertEquals(wpm + " wpm", RECEIVED, mText);
+		}
+	}
+
+	@Test
+	public void resetForgetsTheSender() {
+		sendLevels("SOS", 15);
+		mReceiver.reset();
+		sendLevels("HI", 6);
+		assertEquals("HI ", mText);
+	}
+
+	@Test
+	public void decodesFromPreviewFrames() {
+		final int width = 640;
+		final int height = 480;
+		final byte[] dark = frame(width, height, DARK, DARK);
+		final byte[] lit = frame(width, height, DARK, LIT);
+		send(MESSAGE, 10, new Camera() {
+			public void frame(boolean on, long nanos) {
+				mReceiver.onFrame(on ? lit : dark, width, height, 17 /* NV21 */, nanos);
+			}
+		});
+		assertEquals(RECEIVED, mText);
+	}
+
+	@Test
+	public void regionLumaReadsOnlyTheMiddle() {
+		final int[][] sizes = { {176, 144}, {200, 200}, {640, 480}, {1920, 1080} };
+		for (int[] size : sizes) {
+			byte[] data = frame(size[0], size[1], 250, 40);
+			assertEquals(size[0] + "x" + size[1], 40, MorseReceiver.regionLuma(data, size[0], size[1]), 4);
+		}
+	}
+
+	/** A Y plane at background, with the light's square in the middle (and a margin) at centre */
+	private byte[] frame(int width, int height, int background, int centre) {
+		byte[] data = new byte[width * height * 3 / 2];
+		final int half = Math.min(width, height) / MorseReceiver.REGION_DIVISOR / 2 + 2;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final boolean inside = Math.abs(x - width / 2) <= half && Math.abs(y - height / 2) <= half;
+				data[y * width + x] = (byte) ((inside ? centre : background) + mNoise.nextInt(8));
+			}
+		}
+		return data;
+	}
+}
@@ -0,0 +1,115 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Drives the queue with an executor that only runs what it was given when the
+ * test says so, standing in for the camera thread's message queue.
+ */
+public class TorchCommandQueueTest {
+	private final List<Runnable> mPosted = new ArrayList<Runnable>();
+	private final List<String> mLog = new ArrayList<String>();
+	private TorchCommandQueue mQueue;
+
+	@Before
+	public void setUp() {
+		mQueue = new TorchCommandQueue(new Executor() {
+			public void execute(Runnable command) {
+				mPosted.add(command);
+			}
+		}, new TorchCommandQueue.Target() {
+			public void setLight(boolean on) {
+				mLog.add(on ? "on" : "off");
+			}
+		});
+	}
+
+	/** Other camera work, posted to the same thread the way an open or release is */
+	private void post(final String work) {
+		mPosted.add(new Runnable() {
+			public void run() {
+				mLog.add(work);
+			}
+		});
+	}
+
+	private void runPosted() {
+		while (!mPosted.isEmpty()) {
+			mPosted.remove(0).run();
+		}
+	}
+
+	@Test
+	public void burstRunsOnceWithTheLastRequest() {
+		final int taps = 9;
+		for (int i = 0; i < taps; i++) {
+			mQueue.submit(i % 2 == 0);
+		}
+		assertEquals(1, mPosted.size());
+		assertEquals(taps, mQueue.getSubmittedCount());
+		assertEquals(taps - 1, mQueue.getCoalescedCount());
+		runPosted();
+		// Only the state the burst ended on reaches the camera
+		assertEquals("[on]", mLog.toString());
+		assertEquals(1, mQueue.getExecutedCount());
+	}
+
+	@Test
+	public void requestAfterTheDrainGetsANewCommand() {
+		mQueue.submit(true);
+		runPosted();
+		mQueue.submit(false);
+		assertEquals(1, mPosted.size());
+		runPosted();
+		assertEquals("[on, off]", mLog.toString());
+	}
+
+	@Test
+	public void fencedCommandKeepsItsRequest() {
+		mQueue.submit(true);
+		post("release");
+		mQueue.fence();
+		mQueue.submit(false);
+		runPosted();
+		// Turned on before the release, off after it; not off twice
+		assertEquals("[on, release, off]", mLog.toString());
+	}
+
+	@Test
+	public void requestsAfterAFenceStillCoalesce() {
+		mQueue.submit(false);
+		post("open");
+		mQueue.fence();
+		mQueue.submit(true);
+		mQueue.submit(false);
+		mQueue.submit(true);
+		assertEquals(3, mPosted.size());
+		runPosted();
+		assertEquals("[off, open, on]", mLog.toString());
+
+		// And the queue carries on as normal once the fresh command has run
+		mQueue.submit(false);
+		mQueue.submit(false);
+		runPosted();
+		assertEquals("[off, open, on, off]", mLog.toString());
+	}
+
+	@Test
+	public void fenceWithNothingWaitingChangesNothing() {
+		post("open");
+		mQueue.fence();
+		mQueue.submit(true);
+		mQueue.fence();
+		mQueue.fence();
+		mQueue.submit(false);
+		runPosted();
+		assertEquals("[open, on, off]", mLog.toString());
+	}
+}
@@ -0,0 +1,125 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * The timing loops only ever reach the light through
+ * {@link TorchBackend#applyTorch(boolean)}, so any backend (or a fake) can
+ * drive them.
+ */
+public class TorchSequencerTest {
+
+	@Test
+	public void strobeOnlySwitchesThroughApplyTorch() throws Exception {
+		FakeTorchBackend torch = new FakeTorchBackend(MonotonicClock.SYSTEM, 256);
+		StrobeEngine strobe = new StrobeEngine(torch, MonotonicClock.SYSTEM);
+		strobe.setFrequency(20);
+		strobe.start();
+		Thread.sleep(300);
+		strobe.stop();
+
+		assertEquals(0, torch.mOpens);
+		assertEquals(0, torch.mReleases);
+		assertEquals(0, torch.mLightOns);
+		assertEquals(0, torch.mLightOffs);
+
+		final int switches = torch.getSwitchCount();
+		assertTrue("only " + switches + " switches", switches >= 6);
+		// Lit first, then alternating; stopping leaves the light to the next command
+		for (int i = 0; i < switches; i++) {
+			assertEquals("switch " + i, i % 2 == 0, torch.getState(i));
+		}
+	}
+
+	@Test
+	public void nothingLandsAfterTheNextCommand() throws Exception {
+		FakeTorchBackend torch = new FakeTorchBackend(MonotonicClock.SYSTEM, 256);
+		StrobeEngine strobe = new StrobeEngine(torch, MonotonicClock.SYSTEM);
+		strobe.setFrequency(StrobeEngine.MAX_FREQUENCY);
+		strobe.start();
+		Thread.sleep(100);
+		strobe.stop();
+		assertFalse(strobe.isRunning());
+		torch.lightOff(); // what SearchLight does next
+
+		final int switches = torch.getSwitchCount();
+		Thread.sleep(100);
+		assertEquals(switches, torch.getSwitchCount());
+	}
+
+	@Test
+	public void stopDoesNotWaitForASwitch() throws Exception {
+		FakeTorchBackend torch = new FakeTorchBackend(MonotonicClock.SYSTEM, 256);
+		torch.holdSwitches();
+		StrobeEngine strobe = new StrobeEngine(torch, MonotonicClock.SYSTEM);
+		strobe.start();
+		Thread.sleep(50); // the first switch is stuck in the backend
+		strobe.stop();
+		assertFalse(strobe.isRunning());
+
+		// The stuck switch is refused once it gets its turn
+		torch.releaseSwitches();
+		torch.lightOff();
+		Thread.sleep(50);
+		assertEquals(0, torch.getSwitchCount());
+	}
+
+	@Test
+	public void startRightAfterStopPlaysAgain() throws Exception {
+		FakeTorchBackend torch = new FakeTorchBackend(MonotonicClock.SYSTEM, 256);
+		torch.holdSwitches();
+		StrobeEngine strobe = new StrobeEngine(torch, MonotonicClock.SYSTEM);
+		strobe.setFrequency(StrobeEngine.MAX_FREQUENCY);
+		strobe.start();
+		Thread.sleep(50);
+		strobe.stop();
+		strobe.start(); // the old thread is still stuck in its switch
+		torch.releaseSwitches();
+		Thread.sleep(100);
+		strobe.stop();
+		torch.lightOff();
+
+		// Only the new thread's switches, lit first
+		final int switches = torch.getSwitchCount();
+		assertTrue("only " + switches + " switches", switches >= 2);
+		for (int i = 0; i < switches; i++) {
+			assertEquals("switch " + i, i % 2 == 0, torch.getState(i));
+		}
+	}
+
+	@Test
+	public void unchangedSegmentsDoNotSwitch() throws Exception {
+		FakeTorchBackend torch = new FakeTorchBackend(MonotonicClock.SYSTEM, 256);
+		PwmDimmer dimmer = new PwmDimmer(torch, MonotonicClock.SYSTEM);
+		dimmer.setLevel(1f);
+		dimmer.start();
+		Thread.sleep(100); // many periods, every one of them lit
+		dimmer.stop();
+		torch.lightOff();
+
+		assertEquals(1, torch.getSwitchCount());
+		assertTrue(torch.getState(0));
+	}
+
+	@Test
+	public void backendThatIsNotReadyDoesNotStopTheSequence() throws Exception {
+		FakeTorchBackend torch = new FakeTorchBackend(MonotonicClock.SYSTEM, 256);
+		torch.setReady(false);
+		StrobeEngine strobe = new StrobeEngine(torch, MonotonicClock.SYSTEM);
+		strobe.setFrequency(StrobeEngine.MAX_FREQUENCY);
+		strobe.start();
+		Thread.sleep(50);
+		assertTrue(strobe.isRunning());
+		assertEquals(0, torch.getSwitchCount());
+
+		// The camera came up; the strobe carries on without being restarted
+		torch.setReady(true);
+		Thread.sleep(100);
+		strobe.stop();
+		assertTrue(torch.getSwitchCount() > 2);
+	}
+}
@@ -0,0 +1,184 @@
+package com.scottmain.android.searchlight;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/** Replays lifecycle events and checks the hardware calls each one makes */
+public class TorchStateMachineTest {
+	private FakeCameraOps mOps;
+	private TorchStateMachine mMachine;
+
+	@Before
+	public void setUp() {
+		mOps = new FakeCameraOps();
+		mMachine = new TorchStateMachine(mOps);
+	}
+
+	/** A lean preview running offscreen, the way every mode but the viewfinder has it */
+	private void startLean() {
+		mOps.mOffscreen = true;
+		mMachine.surfaceCreated();
+		mMachine.surfaceChanged(1, 1, 0);
+		mMachine.setLight(true);
+		mOps.takeCalls();
+	}
+
+	private void startViewfinder() {
+		mOps.mSizedToSurface = true;
+		mMachine.surfaceCreated();
+		mMachine.surfaceChanged(480, 800, 0);
+		mMachine.setLight(true);
+		mOps.takeCalls();
+	}
+
+	@Test
+	public void coldStartWaitsForTheSurfaceSize() {
+		mMachine.open();
+		assertEquals("open", mOps.takeCalls());
+		assertEquals(TorchStateMachine.OPENED, mMachine.getState());
+		mMachine.surfaceCreated();
+		assertEquals("attach", mOps.takeCalls());
+		assertEquals(TorchStateMachine.ATTACHED, mMachine.getState());
+		mMachine.surfaceChanged(1, 1, 0);
+		assertEquals("configure 1x1 r0, start, ready", mOps.takeCalls());
+		assertEquals(TorchStateMachine.PREVIEWING, mMachine.getState());
+	}
+
+	@Test
+	public void lightAskedForEarlyComesOnWithThePreview() {
+		mMachine.setLight(true);
+		assertEquals("open", mOps.takeCalls());
+		mMachine.surfaceCreated();
+		mMachine.surfaceChanged(1, 1, 0);
+		assertEquals("attach, configure 1x1 r0, start, torch on, ready", mOps.takeCalls());
+	}
+
+	@Test
+	public void switchingToTheViewfinderStartsThePreviewOnce() {
+		startLean();
+		mOps.mSizedToSurface = true;
+		mOps.mOffscreen = false;
+		mMachine.retarget();
+		assertEquals("stop, attach", mOps.takeCalls());
+		assertEquals(TorchStateMachine.ATTACHED, mMachine.getState());
+		// The surface grows to fill the screen for the viewfinder
+		mMachine.surfaceChanged(480, 800, 0);
+		assertEquals("configure 480x800 r0, start, torch on, ready", mOps.takeCalls());
+	}
+
+	@Test
+	public void switchingBackToLeanStartsThePreviewOnce() {
+		startViewfinder();
+		mOps.mSizedToSurface = false;
+		mOps.mOffscreen = true;
+		mMachine.retarget();
+		assertEquals("stop, attach, configure 480x800 r0, start, torch on, ready", mOps.takeCalls());
+		// The surface shrinks away; a lean preview doesn't care
+		mMachine.surfaceChanged(1, 1, 0);
+		assertEquals("", mOps.takeCalls());
+		assertEquals(TorchStateMachine.PREVIEWING, mMachine.getState());
+	}
+
+	@Test
+	public void retargetBeforeThePreviewIsUpDoesNothing() {
+		mMachine.open();
+		mOps.takeCalls();
+		mMachine.retarget();
+		assertEquals("", mOps.takeCalls());
+	}
+
+	@Test
+	public void sameSizeAgainChangesNothing() {
+		startViewfinder();
+		mMachine.surfaceChanged(480, 800, 0);
+		assertEquals("", mOps.takeCalls());
+	}
+
+	@Test
+	public void rotationRestartsOnlyAPreviewSizedToTheSurface() {
+		startViewfinder();
+		mMachine.surfaceChanged(800, 480, 1);
+		assertEquals("stop, configure 800x480 r1, start, torch on", mOps.takeCalls());
+
+		setUp();
+		startLean();
+		mMachine.surfaceChanged(1, 1, 1);
+		assertEquals("orientation r1", mOps.takeCalls());
+	}
+
+	@Test
+	public void handoverKeepsAnOffscreenPreviewRunning() {
+		startLean();
+		mMachine.surfaceDestroyed(true);
+		assertEquals("retain previewing", mOps.takeCalls());
+		assertEquals(TorchStateMachine.CLOSED, mMachine.getState());
+
+		// The next owner takes it still previewing, and only fixes the orientation
+		FakeCameraOps next = new FakeCameraOps();
+		next.mOpenResult = TorchStateMachine.PREVIEWING;
+		next.mOffscreen = true;
+		TorchStateMachine machine = new TorchStateMachine(next);
+		machine.surfaceCreated();
+		assertEquals("open, ready", next.takeCalls());
+		assertEquals(TorchStateMachine.PREVIEWING, machine.getState());
+		machine.surfaceChanged(1, 1, 0);
+		assertEquals("orientation r0", next.takeCalls());
+	}
+
+	@Test
+	public void handoverFromTheViewfinderStopsThePreview() {
+		startViewfinder();
+		mMachine.surfaceDestroyed(true);
+		assertEquals("stop, retain", mOps.takeCalls());
+	}
+
+	@Test
+	public void releaseTurnsTheLightOutWithTheCamera() {
+		startLean();
+		mMachine.surfaceDestroyed(false);
+		assertEquals("stop, release", mOps.takeCalls());
+		// The light isn't remembered for the next time
+		mMachine.surfaceCreated();
+		mMachine.surfaceChanged(1, 1, 0);
+		assertEquals("open, attach, configure 1x1 r0, start, ready", mOps.takeCalls());
+	}
+
+	@Test
+	public void cameraNotAvailable() {
+		mOps.mOpenResult = TorchStateMachine.CLOSED;
+		mMachine.surfaceCreated();
+		assertEquals("open, not available", mOps.takeCalls());
+		assertEquals(TorchStateMachine.CLOSED, mMachine.getState());
+		mMachine.surfaceChanged(1, 1, 0);
+		assertEquals("", mOps.takeCalls());
+	}
+
+	@Test
+	public void surfaceTheCameraCantUseReleasesIt() {
+		mOps.mAttachResult = false;
+		mMachine.surfaceCreated();
+		assertEquals("open, attach, release", mOps.takeCalls());
+		assertEquals(TorchStateMachine.CLOSED, mMachine.getState());
+	}
+
+	@Test
+	public void inactiveMachineLeavesTheCameraAlone() {
+		mMachine.setActive(false);
+		mMachine.surfaceCreated();
+		mMachine.surfaceChanged(1, 1, 0);
+		assertEquals("", mOps.takeCalls());
+		mMachine.setActive(true);
+		mMachine.open();
+		assertEquals("open, attach, configure 1x1 r0, start, ready", mOps.takeCalls());
+	}
+
+	@Test
+	public void applyTorchOnlyWhilePreviewing() {
+		assertEquals(false, mMachine.applyTorch(true));
+		startLean();
+		assertEquals(true, mMachine.applyTorch(false));
+		assertEquals("torch off", mOps.takeCalls());
+	}
+}
@@ -0,0 +1,104 @@
+package com.scottmain.android.searchlight;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Bundle;
+import android.os.Debug;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+import android.view.ContextThemeWrapper;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.widget.FrameLayout;
+import android.widget.ImageButton;
+
+/**
+ * What the bulb costs to bring up, the way LightControlFragment does it:
+ * inflate its layout, give it a BulbDrawable, lay it out and draw it lit.
+ * Thread CPU time and heap growth (native and Java, since bitmap pixels have
+ * lived in either, depending on the release) are measured around each run
+ * and reported as instrumentation status, and in the log under this class's
+ * name.
+ *
+ * <p>Time depends on the device, so only the heap has a budget: a quarter of
+ * one of the decoded bitmaps the drawable replaced. Growth is read while the
+ * bulb is still held; a collection in between can only make it look smaller.</p>
+ */
+public class BulbInflateCostTest extends InstrumentationTestCase {
+	private static final String TAG = "BulbInflateCostTest";
+	private static final int RUNS = 20;
+	private static final int OLD_WIDTH = 480; // light_on.png at hdpi
+	private static final int OLD_HEIGHT = 469;
+	private static final long OLD_BITMAP_BYTES = OLD_WIDTH * OLD_HEIGHT * 4; // decoded, ARGB_8888
+	private static final long HEAP_BUDGET_BYTES = OLD_BITMAP_BYTES / 4;
+
+	private Context mContext;
+	private FrameLayout mParent;
+	private Canvas mCanvas;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		mContext = new ContextThemeWrapper(
+				getInstrumentation().getTargetContext(), R.style.CompatibilityTheme);
+		mParent = new FrameLayout(mContext);
+		// Made before counting starts, so its pixels are not counted
+		mCanvas = new Canvas(Bitmap.createBitmap(OLD_WIDTH, OLD_HEIGHT, Bitmap.Config.ARGB_8888));
+	}
+
+	public void testInflateAndFirstDraw() {
+		// One untimed run, so class loading and the resource caches aren't counted
+		inflateAndDraw(false);
+
+		final Runtime runtime = Runtime.getRuntime();
+		long cpuNanos = 0;
+		long maxCpuNanos = 0;
+		long maxNativeBytes = 0;
+		long maxJavaBytes = 0;
+		for (int i = 0; i < RUNS; i++) {
+			runtime.gc();
+			final long nativeBefore = Debug.getNativeHeapAllocatedSize();
+			final long javaBefore = runtime.totalMemory() - runtime.freeMemory();
+			final long start = Debug.threadCpuTimeNanos();
+
+			final View bulb = inflateAndDraw(i % 2 == 0);
+
+			final long cpu = Debug.threadCpuTimeNanos() - start;
+			final long nativeBytes = Debug.getNativeHeapAllocatedSize() - nativeBefore;
+			final long javaBytes = runtime.totalMemory() - runtime.freeMemory() - javaBefore;
+			assertNotNull(bulb);
+			cpuNanos += cpu;
+			maxCpuNanos = Math.max(maxCpuNanos, cpu);
+			maxNativeBytes = Math.max(maxNativeBytes, nativeBytes);
+			maxJavaBytes = Math.max(maxJavaBytes, javaBytes);
+		}
+
+		final Bundle results = new Bundle();
+		results.putLong("cpu_nanos_mean", cpuNanos / RUNS);
+		results.putLong("cpu_nanos_max", maxCpuNanos);
+		results.putLong("native_heap_bytes_max", maxNativeBytes);
+		results.putLong("java_heap_bytes_max", maxJavaBytes);
+		getInstrumentation().sendStatus(0, results);
+		Log.i(TAG, "Bulb inflate and first draw over " + RUNS + " runs: " + results);
+
+		assertTrue("native heap grew " + maxNativeBytes + " bytes",
+				maxNativeBytes < HEAP_BUDGET_BYTES);
+		assertTrue("Java heap grew " + maxJavaBytes + " bytes",
+				maxJavaBytes < HEAP_BUDGET_BYTES);
+	}
+
+	/** @param small the viewfinder's bulb rather than the full-size one */
+	private View inflateAndDraw(boolean small) {
+		final ImageButton bulb = (ImageButton) LayoutInflater.from(mContext)
+				.inflate(R.layout.bulb, mParent, false);
+		final BulbDrawable drawable = new BulbDrawable(mContext.getResources(), small);
+		bulb.setImageDrawable(drawable);
+		drawable.startTransition(0);
+		final int spec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+		bulb.measure(spec, spec);
+		bulb.layout(0, 0, bulb.getMeasuredWidth(), bulb.getMeasuredHeight());
+		bulb.draw(mCanvas);
+		return bulb;
+	}
+}
@@ -0,0 +1,107 @@
+package com.scottmain.android.searchlight;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.os.SystemClock;
+import android.test.InstrumentationTestCase;
+import android.view.ContextThemeWrapper;
+import android.view.MotionEvent;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.FrameLayout;
+
+/**
+ * Dragging the switch's thumb must not allocate: each display frame's touch
+ * event (with its batched history) and the redraw that follows are counted
+ * with the runtime's per-thread allocation counter.
+ */
+public class LightSwitchAllocationTest extends InstrumentationTestCase {
+	private static final int FRAMES = 120;
+	private static final int SAMPLES_PER_FRAME = 4; // a 240 Hz panel at 60 fps
+	private static final long FRAME_MILLIS = 16;
+
+	private LightSwitch mSwitch;
+	private Canvas mCanvas;
+	private MotionEvent[] mFrames;
+	private MotionEvent mDown;
+	private MotionEvent mStartDrag;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		final Context context = new ContextThemeWrapper(
+				getInstrumentation().getTargetContext(), R.style.CompatibilityTheme);
+		mSwitch = new LightSwitch(context);
+		mSwitch.setChecked(true); // thumb at the top of the track
+		final FrameLayout parent = new FrameLayout(context);
+		parent.addView(mSwitch);
+		final int spec = View.MeasureSpec.makeMeasureSpec(0, View.MeasureSpec.UNSPECIFIED);
+		parent.measure(spec, spec);
+		parent.layout(0, 0, parent.getMeasuredWidth(), parent.getMeasuredHeight());
+		mCanvas = new Canvas(Bitmap.createBitmap(mSwitch.getWidth(), mSwitch.getHeight(),
+				Bitmap.Config.ARGB_8888));
+
+		// Every event is built before counting starts; the thumb sweeps down
+		// and back up the track, a few samples per frame
+		final float x = mSwitch.getWidth() / 2f;
+		final float top = 1;
+		final float bottom = mSwitch.getHeight() - 1;
+		final int slop = ViewConfiguration.get(context).getScaledTouchSlop();
+		final long downTime = SystemClock.uptimeMillis();
+		mDown = MotionEvent.obtain(downTime, downTime, MotionEvent.ACTION_DOWN, x, top, 0);
+		mStartDrag = MotionEvent.obtain(downTime, downTime + FRAME_MILLIS,
+				MotionEvent.ACTION_MOVE, x, top + slop + 1, 0);
+		mFrames = new MotionEvent[FRAMES];
+		final int steps = FRAMES * SAMPLES_PER_FRAME;
+		for (int f = 0; f < FRAMES; f++) {
+			MotionEvent ev = null;
+			for (int s = 0; s < SAMPLES_PER_FRAME; s++) {
+				final int step = f * SAMPLES_PER_FRAME + s;
+				final float phase = 2f * step / steps; // 0..2, down then up
+				final float y = top + (bottom - top) * (phase <= 1 ? phase : 2 - phase);
+				final long time = downTime + (f + 2) * FRAME_MILLIS + s * FRAME_MILLIS / SAMPLES_PER_FRAME;
+				if (ev == null) {
+					ev = MotionEvent.obtain(downTime, time, MotionEvent.ACTION_MOVE, x, y, 0);
+				} else {
+					ev.addBatch(time, x, y, 1, 1, 0);
+				}
+			}
+			mFrames[f] = ev;
+		}
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		for (MotionEvent ev : mFrames) ev.recycle();
+		mDown.recycle();
+		mStartDrag.recycle();
+		super.tearDown();
+	}
+
+	public void testDragFramesDoNotAllocate() {
+		mSwitch.onTouchEvent(mDown);
+		mSwitch.onTouchEvent(mStartDrag);
+		// One untimed pass, so lazily built state (layouts, the velocity
+		// tracker's buffers) is already in place
+		playFrames();
+
+		Debug.startAllocCounting();
+		try {
+			Debug.resetThreadAllocCount();
+			playFrames();
+			final int allocations = Debug.getThreadAllocCount();
+			assertEquals("objects allocated over " + FRAMES + " drag frames", 0, allocations);
+		} finally {
+			Debug.stopAllocCounting();
+		}
+	}
+
+	private void playFrames() {
+		for (int f = 0; f < FRAMES; f++) {
+			assertTrue(mSwitch.onTouchEvent(mFrames[f]));
+			mSwitch.draw(mCanvas);
+		}
+	}
+}